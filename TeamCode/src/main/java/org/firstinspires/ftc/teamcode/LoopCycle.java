@@ -0,0 +1,152 @@
+package org.firstinspires.ftc.teamcode;
+
+import com.qualcomm.hardware.lynx.LynxModule;
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.firstinspires.ftc.robotcore.external.Telemetry;
+
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Owns the hubs' bulk cache for a drive, so every control tick sees exactly one bulk
+ * read per hub.
+ * <p>
+ * In MANUAL mode the cache is cleared once, in {@link #beginTick()}, and every encoder
+ * read until the next tick is served from that single bulk read. The drive actions
+ * begin a tick at the top of each <i>run()</i>. Loops that call
+ * <i>updatePoseEstimate()</i> themselves may call {@link #beginTick()} first; if they
+ * do not, each pose update begins its own tick. A {@link #beginTick()} only covers the
+ * first pose update after it.
+ * <p>
+ * A pose update that follows an explicitly begun tick which has already read the
+ * encoders, with no {@link #beginTick()} in between, is an extra read: it is usually a
+ * second <i>updatePoseEstimate()</i> in the same loop as a drive action. It stays in
+ * the current tick, gets fresh data at the cost of another bulk read per hub, and is
+ * counted, logged and added to that tick's transactions. Once a tick has had its extra
+ * read, the next unrequested update begins a new tick, so a loop that takes over from
+ * an action and updates the pose itself counts one extra read at the handover.
+ * <p>
+ * Other code reading bulk-cached values (e.g. an arm encoder) in MANUAL mode sees the
+ * values from the drive's latest tick, which go stale whenever the drive is not
+ * updating the pose (during <i>waitForStart()</i>, a <i>SleepAction</i>, ...).
+ * <p>
+ * Hub transactions per tick are estimated as one bulk read per hub, plus one more per
+ * hub for each extra read in the tick, plus motor writes. I2C devices such as the IMU
+ * are not counted.
+ */
+public final class LoopCycle {
+    private static final String TAG = "LoopCycle";
+
+    private final List<LynxModule> modules;
+    private final boolean manual;
+    private final LongSupplier motorWrites;
+
+    private long ticks = 0;
+    // Set by beginTick(), cleared by the pose update it covers
+    private boolean tickRequested = false;
+    private boolean tickWasRequested = false;
+    private int poseUpdatesThisTick = 0;
+    private int extraReadsThisTick = 0;
+    private long extraReads = 0;
+    private long writesAtTickStart = 0;
+    private int transactionsLastTick = 0;
+
+    /**
+     * @param modules     Hubs whose bulk cache this coordinator owns
+     * @param manual      True for MANUAL bulk caching, false to keep AUTO
+     * @param motorWrites Running count of motor writes issued, for the transaction estimate
+     */
+    public LoopCycle(List<LynxModule> modules, boolean manual, LongSupplier motorWrites) {
+        this.modules = modules;
+        this.manual = manual;
+        this.motorWrites = motorWrites;
+
+        for (LynxModule module : modules) {
+            module.setBulkCachingMode(manual
+                    ? LynxModule.BulkCachingMode.MANUAL : LynxModule.BulkCachingMode.AUTO);
+        }
+    }
+
+    /**
+     * Start a control tick: clear the bulk cache so the next read fetches fresh data.
+     */
+    public void beginTick() {
+        begin(true);
+    }
+
+    private void begin(boolean requested) {
+        if (ticks > 0) {
+            long writes = motorWrites.getAsLong();
+            transactionsLastTick = (1 + extraReadsThisTick) * modules.size()
+                    + (int) (writes - writesAtTickStart);
+            writesAtTickStart = writes;
+        } else {
+            writesAtTickStart = motorWrites.getAsLong();
+        }
+
+        clearCache();
+
+        ticks++;
+        tickRequested = requested;
+        tickWasRequested = requested;
+        poseUpdatesThisTick = 0;
+        extraReadsThisTick = 0;
+    }
+
+    private void clearCache() {
+        if (manual) {
+            for (int i = 0; i < modules.size(); i++) {
+                modules.get(i).clearBulkCache();
+            }
+        }
+    }
+
+    /**
+     * Called by the drive before it reads the encoders for a pose update.
+     */
+    void beforePoseUpdate() {
+        if (tickRequested) {
+            // The first read of a tick begun by beginTick()
+            tickRequested = false;
+        } else if (tickWasRequested && poseUpdatesThisTick > 0) {
+            // Another read in the same loop: costs a bulk read per hub either way
+            extraReadsThisTick++;
+            if (extraReads++ == 0) {
+                RobotLog.ww(TAG, "updatePoseEstimate() called again after a drive action's read; "
+                        + "call beginTick() once per loop");
+            }
+            clearCache();
+            // Further unrequested updates are a loop of their own
+            tickWasRequested = false;
+        } else {
+            begin(false);
+        }
+        poseUpdatesThisTick++;
+    }
+
+    public boolean isManual() {
+        return manual;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    public long getExtraReads() {
+        return extraReads;
+    }
+
+    /**
+     * @return Estimated hub transactions in the last completed tick
+     */
+    public int getTransactionsLastTick() {
+        return transactionsLastTick;
+    }
+
+    public void addTelemetry(Telemetry telemetry) {
+        telemetry.addData("Bulk caching", manual ? "MANUAL" : "AUTO");
+        telemetry.addData("Hub transactions/loop", transactionsLastTick);
+        telemetry.addData("Extra hub reads", extraReads);
+    }
+}
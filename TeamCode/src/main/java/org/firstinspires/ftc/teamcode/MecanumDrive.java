@@ -48,7 +48,6 @@ import org.firstinspires.ftc.teamcode.messages.PoseMessage;
 
 import java.lang.Math;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 
 @Config
@@ -89,6 +88,15 @@ public final class MecanumDrive {
         public double axialVelGain = 0.0;
         public double lateralVelGain = 0.0;
         public double headingVelGain = 0.0; // shared with turn
+
+        // pose history, in updatePoseEstimate() calls (6000 holds a 30 s autonomous at 200 Hz)
+        public int poseHistoryCapacity = 6000;
+        // number of most recent poses drawn on the dashboard field
+        public int poseHistoryDrawLength = 100;
+
+        // clear the bulk cache once per control tick instead of letting reads trigger it;
+        // other bulk-cached reads go stale while the drive is not updating the pose
+        public boolean manualBulkCaching = false;
     }
 
     public static Params PARAMS = new Params();
@@ -107,19 +115,35 @@ public final class MecanumDrive {
             new ProfileAccelConstraint(PARAMS.minProfileAccel, PARAMS.maxProfileAccel);
 
     public final DcMotorEx leftFront, leftBack, rightBack, rightFront;
+    // Drive code writes powers through these so unchanged powers are not re-sent
+    private final MotorOutput leftFrontOutput, leftBackOutput, rightBackOutput, rightFrontOutput;
 
     public final VoltageSensor voltageSensor;
+    public final VoltageSampler voltageSampler;
 
     public final LazyImu lazyImu;
 
     public final Localizer localizer;
-    private final LinkedList<Pose2d> poseHistory = new LinkedList<>();
+    public final LoopCycle loopCycle;
+    public final PoseHistory poseHistory = new PoseHistory(PARAMS.poseHistoryCapacity);
 
     private final DownsampledWriter estimatedPoseWriter = new DownsampledWriter("ESTIMATED_POSE", 50_000_000);
     private final DownsampledWriter targetPoseWriter = new DownsampledWriter("TARGET_POSE", 50_000_000);
     private final DownsampledWriter driveCommandWriter = new DownsampledWriter("DRIVE_COMMAND", 50_000_000);
     private final DownsampledWriter mecanumCommandWriter = new DownsampledWriter("MECANUM_COMMAND", 50_000_000);
 
+    // Reused every control tick instead of allocating fresh messages
+    private final PoseMessage targetPoseMessage = new PoseMessage();
+    private final PoseMessage estimatedPoseMessage = new PoseMessage();
+    private final DriveCommandMessage driveCommandMessage = new DriveCommandMessage();
+    private final MecanumCommandMessage mecanumCommandMessage = new MecanumCommandMessage();
+
+    // Rebuilt only when the PARAMS they were built from change
+    private HolonomicController controller;
+    private final double[] controllerGains = new double[6];
+    private MotorFeedforward feedforward;
+    private final double[] feedforwardGains = new double[3];
+
     public class DriveLocalizer implements Localizer {
         public final Encoder leftFront, leftBack, rightBack, rightFront;
         public final IMU imu;
@@ -219,9 +243,8 @@ public final class MecanumDrive {
     public MecanumDrive(HardwareMap hardwareMap, Pose2d pose) {
         LynxFirmware.throwIfModulesAreOutdated(hardwareMap);
 
-        for (LynxModule module : hardwareMap.getAll(LynxModule.class)) {
-            module.setBulkCachingMode(LynxModule.BulkCachingMode.AUTO);
-        }
+        loopCycle = new LoopCycle(hardwareMap.getAll(LynxModule.class), PARAMS.manualBulkCaching,
+                this::getMotorWritesIssued);
 
         // TODO: make sure your config has motors with these names (or change them)
         //   see https://ftc-docs.firstinspires.org/en/latest/hardware_and_software_configuration/configuring/index.html
@@ -230,6 +253,11 @@ public final class MecanumDrive {
         rightBack = hardwareMap.get(DcMotorEx.class, "rightBack");
         rightFront = hardwareMap.get(DcMotorEx.class, "rightFront");
 
+        leftFrontOutput = new MotorOutput(leftFront);
+        leftBackOutput = new MotorOutput(leftBack);
+        rightBackOutput = new MotorOutput(rightBack);
+        rightFrontOutput = new MotorOutput(rightFront);
+
         leftFront.setZeroPowerBehavior(DcMotor.ZeroPowerBehavior.BRAKE);
         leftBack.setZeroPowerBehavior(DcMotor.ZeroPowerBehavior.BRAKE);
         rightBack.setZeroPowerBehavior(DcMotor.ZeroPowerBehavior.BRAKE);
@@ -244,6 +272,7 @@ public final class MecanumDrive {
                 PARAMS.logoFacingDirection, PARAMS.usbFacingDirection));
 
         voltageSensor = hardwareMap.voltageSensor.iterator().next();
+        voltageSampler = new VoltageSampler(voltageSensor);
 
         localizer = new DriveLocalizer(pose);
 
@@ -259,10 +288,10 @@ public final class MecanumDrive {
             maxPowerMag = Math.max(maxPowerMag, power.value());
         }
 
-        leftFront.setPower(wheelVels.leftFront.get(0) / maxPowerMag);
-        leftBack.setPower(wheelVels.leftBack.get(0) / maxPowerMag);
-        rightBack.setPower(wheelVels.rightBack.get(0) / maxPowerMag);
-        rightFront.setPower(wheelVels.rightFront.get(0) / maxPowerMag);
+        leftFrontOutput.setPower(wheelVels.leftFront.get(0) / maxPowerMag);
+        leftBackOutput.setPower(wheelVels.leftBack.get(0) / maxPowerMag);
+        rightBackOutput.setPower(wheelVels.rightBack.get(0) / maxPowerMag);
+        rightFrontOutput.setPower(wheelVels.rightFront.get(0) / maxPowerMag);
     }
 
     public final class FollowTrajectoryAction implements Action {
@@ -288,6 +317,8 @@ public final class MecanumDrive {
 
         @Override
         public boolean run(@NonNull TelemetryPacket p) {
+            loopCycle.beginTick();
+
             double t;
             if (beginTs < 0) {
                 beginTs = Actions.now();
@@ -297,49 +328,47 @@ public final class MecanumDrive {
             }
 
             if (t >= timeTrajectory.duration) {
-                leftFront.setPower(0);
-                leftBack.setPower(0);
-                rightBack.setPower(0);
-                rightFront.setPower(0);
+                leftFrontOutput.setPower(0);
+                leftBackOutput.setPower(0);
+                rightBackOutput.setPower(0);
+                rightFrontOutput.setPower(0);
 
                 return false;
             }
 
             Pose2dDual<Time> txWorldTarget = timeTrajectory.get(t);
-            targetPoseWriter.write(new PoseMessage(txWorldTarget.value()));
+            Pose2d target = txWorldTarget.value();
+            targetPoseWriter.write(targetPoseMessage.set(target));
 
             PoseVelocity2d robotVelRobot = updatePoseEstimate();
 
-            PoseVelocity2dDual<Time> command = new HolonomicController(
-                    PARAMS.axialGain, PARAMS.lateralGain, PARAMS.headingGain,
-                    PARAMS.axialVelGain, PARAMS.lateralVelGain, PARAMS.headingVelGain
-            )
+            PoseVelocity2dDual<Time> command = getController()
                     .compute(txWorldTarget, localizer.getPose(), robotVelRobot);
-            driveCommandWriter.write(new DriveCommandMessage(command));
+            driveCommandWriter.write(driveCommandMessage.set(command));
 
             MecanumKinematics.WheelVelocities<Time> wheelVels = kinematics.inverse(command);
-            double voltage = voltageSensor.getVoltage();
+            double voltage = voltageSampler.getVoltage();
 
-            final MotorFeedforward feedforward = new MotorFeedforward(PARAMS.kS,
-                    PARAMS.kV / PARAMS.inPerTick, PARAMS.kA / PARAMS.inPerTick);
+            final MotorFeedforward feedforward = getFeedforward();
             double leftFrontPower = feedforward.compute(wheelVels.leftFront) / voltage;
             double leftBackPower = feedforward.compute(wheelVels.leftBack) / voltage;
             double rightBackPower = feedforward.compute(wheelVels.rightBack) / voltage;
             double rightFrontPower = feedforward.compute(wheelVels.rightFront) / voltage;
-            mecanumCommandWriter.write(new MecanumCommandMessage(
+            mecanumCommandWriter.write(mecanumCommandMessage.set(
                     voltage, leftFrontPower, leftBackPower, rightBackPower, rightFrontPower
             ));
 
-            leftFront.setPower(leftFrontPower);
-            leftBack.setPower(leftBackPower);
-            rightBack.setPower(rightBackPower);
-            rightFront.setPower(rightFrontPower);
+            leftFrontOutput.setPower(leftFrontPower);
+            leftBackOutput.setPower(leftBackPower);
+            rightBackOutput.setPower(rightBackPower);
+            rightFrontOutput.setPower(rightFrontPower);
 
             p.put("x", localizer.getPose().position.x);
             p.put("y", localizer.getPose().position.y);
             p.put("heading (deg)", Math.toDegrees(localizer.getPose().heading.toDouble()));
+            p.put("hub transactions/loop", loopCycle.getTransactionsLastTick());
 
-            Pose2d error = txWorldTarget.value().minusExp(localizer.getPose());
+            Pose2d error = target.minusExp(localizer.getPose());
             p.put("xError", error.position.x);
             p.put("yError", error.position.y);
             p.put("headingError (deg)", Math.toDegrees(error.heading.toDouble()));
@@ -349,7 +378,7 @@ public final class MecanumDrive {
             drawPoseHistory(c);
 
             c.setStroke("#4CAF50");
-            Drawing.drawRobot(c, txWorldTarget.value());
+            Drawing.drawRobot(c, target);
 
             c.setStroke("#3F51B5");
             Drawing.drawRobot(c, localizer.getPose());
@@ -380,6 +409,8 @@ public final class MecanumDrive {
 
         @Override
         public boolean run(@NonNull TelemetryPacket p) {
+            loopCycle.beginTick();
+
             double t;
             if (beginTs < 0) {
                 beginTs = Actions.now();
@@ -389,48 +420,45 @@ public final class MecanumDrive {
             }
 
             if (t >= turn.duration) {
-                leftFront.setPower(0);
-                leftBack.setPower(0);
-                rightBack.setPower(0);
-                rightFront.setPower(0);
+                leftFrontOutput.setPower(0);
+                leftBackOutput.setPower(0);
+                rightBackOutput.setPower(0);
+                rightFrontOutput.setPower(0);
 
                 return false;
             }
 
             Pose2dDual<Time> txWorldTarget = turn.get(t);
-            targetPoseWriter.write(new PoseMessage(txWorldTarget.value()));
+            Pose2d target = txWorldTarget.value();
+            targetPoseWriter.write(targetPoseMessage.set(target));
 
             PoseVelocity2d robotVelRobot = updatePoseEstimate();
 
-            PoseVelocity2dDual<Time> command = new HolonomicController(
-                    PARAMS.axialGain, PARAMS.lateralGain, PARAMS.headingGain,
-                    PARAMS.axialVelGain, PARAMS.lateralVelGain, PARAMS.headingVelGain
-            )
+            PoseVelocity2dDual<Time> command = getController()
                     .compute(txWorldTarget, localizer.getPose(), robotVelRobot);
-            driveCommandWriter.write(new DriveCommandMessage(command));
+            driveCommandWriter.write(driveCommandMessage.set(command));
 
             MecanumKinematics.WheelVelocities<Time> wheelVels = kinematics.inverse(command);
-            double voltage = voltageSensor.getVoltage();
-            final MotorFeedforward feedforward = new MotorFeedforward(PARAMS.kS,
-                    PARAMS.kV / PARAMS.inPerTick, PARAMS.kA / PARAMS.inPerTick);
+            double voltage = voltageSampler.getVoltage();
+            final MotorFeedforward feedforward = getFeedforward();
             double leftFrontPower = feedforward.compute(wheelVels.leftFront) / voltage;
             double leftBackPower = feedforward.compute(wheelVels.leftBack) / voltage;
             double rightBackPower = feedforward.compute(wheelVels.rightBack) / voltage;
             double rightFrontPower = feedforward.compute(wheelVels.rightFront) / voltage;
-            mecanumCommandWriter.write(new MecanumCommandMessage(
+            mecanumCommandWriter.write(mecanumCommandMessage.set(
                     voltage, leftFrontPower, leftBackPower, rightBackPower, rightFrontPower
             ));
 
-            leftFront.setPower(feedforward.compute(wheelVels.leftFront) / voltage);
-            leftBack.setPower(feedforward.compute(wheelVels.leftBack) / voltage);
-            rightBack.setPower(feedforward.compute(wheelVels.rightBack) / voltage);
-            rightFront.setPower(feedforward.compute(wheelVels.rightFront) / voltage);
+            leftFrontOutput.setPower(leftFrontPower);
+            leftBackOutput.setPower(leftBackPower);
+            rightBackOutput.setPower(rightBackPower);
+            rightFrontOutput.setPower(rightFrontPower);
 
             Canvas c = p.fieldOverlay();
             drawPoseHistory(c);
 
             c.setStroke("#4CAF50");
-            Drawing.drawRobot(c, txWorldTarget.value());
+            Drawing.drawRobot(c, target);
 
             c.setStroke("#3F51B5");
             Drawing.drawRobot(c, localizer.getPose());
@@ -448,35 +476,89 @@ public final class MecanumDrive {
         }
     }
 
+    /**
+     * Forget the last power sent to each drive motor, so the next command is always
+     * written. Call after setting drive motor powers directly instead of through
+     * {@link #setDrivePowers}.
+     */
+    public void invalidateMotorCache() {
+        leftFrontOutput.invalidate();
+        leftBackOutput.invalidate();
+        rightBackOutput.invalidate();
+        rightFrontOutput.invalidate();
+    }
+
+    /**
+     * @return Motor power commands sent to the hub so far
+     */
+    public long getMotorWritesIssued() {
+        return leftFrontOutput.getWritesIssued() + leftBackOutput.getWritesIssued()
+                + rightBackOutput.getWritesIssued() + rightFrontOutput.getWritesIssued();
+    }
+
+    /**
+     * @return Motor power commands skipped because the power had not changed
+     */
+    public long getMotorWritesSkipped() {
+        return leftFrontOutput.getWritesSkipped() + leftBackOutput.getWritesSkipped()
+                + rightBackOutput.getWritesSkipped() + rightFrontOutput.getWritesSkipped();
+    }
+
+    /**
+     * @return Path controller for the current PARAMS gains, rebuilt only after they change
+     */
+    private HolonomicController getController() {
+        if (controller == null
+                || controllerGains[0] != PARAMS.axialGain || controllerGains[1] != PARAMS.lateralGain
+                || controllerGains[2] != PARAMS.headingGain || controllerGains[3] != PARAMS.axialVelGain
+                || controllerGains[4] != PARAMS.lateralVelGain || controllerGains[5] != PARAMS.headingVelGain) {
+            controllerGains[0] = PARAMS.axialGain;
+            controllerGains[1] = PARAMS.lateralGain;
+            controllerGains[2] = PARAMS.headingGain;
+            controllerGains[3] = PARAMS.axialVelGain;
+            controllerGains[4] = PARAMS.lateralVelGain;
+            controllerGains[5] = PARAMS.headingVelGain;
+
+            controller = new HolonomicController(
+                    PARAMS.axialGain, PARAMS.lateralGain, PARAMS.headingGain,
+                    PARAMS.axialVelGain, PARAMS.lateralVelGain, PARAMS.headingVelGain
+            );
+        }
+        return controller;
+    }
+
+    /**
+     * @return Feedforward for the current PARAMS, rebuilt only after they change
+     */
+    private MotorFeedforward getFeedforward() {
+        double kV = PARAMS.kV / PARAMS.inPerTick;
+        double kA = PARAMS.kA / PARAMS.inPerTick;
+        if (feedforward == null
+                || feedforwardGains[0] != PARAMS.kS || feedforwardGains[1] != kV || feedforwardGains[2] != kA) {
+            feedforwardGains[0] = PARAMS.kS;
+            feedforwardGains[1] = kV;
+            feedforwardGains[2] = kA;
+
+            feedforward = new MotorFeedforward(PARAMS.kS, kV, kA);
+        }
+        return feedforward;
+    }
+
     public PoseVelocity2d updatePoseEstimate() {
+        loopCycle.beforePoseUpdate();
         PoseVelocity2d vel = localizer.update();
-        poseHistory.add(localizer.getPose());
-        
-        while (poseHistory.size() > 100) {
-            poseHistory.removeFirst();
-        }
+        poseHistory.add(localizer.getPose(), System.nanoTime());
 
-        estimatedPoseWriter.write(new PoseMessage(localizer.getPose()));
+        estimatedPoseWriter.write(estimatedPoseMessage.set(localizer.getPose()));
         
         
         return vel;
     }
 
     private void drawPoseHistory(Canvas c) {
-        double[] xPoints = new double[poseHistory.size()];
-        double[] yPoints = new double[poseHistory.size()];
-
-        int i = 0;
-        for (Pose2d t : poseHistory) {
-            xPoints[i] = t.position.x;
-            yPoints[i] = t.position.y;
-
-            i++;
-        }
-
         c.setStrokeWidth(1);
         c.setStroke("#3F51B5");
-        c.strokePolyline(xPoints, yPoints);
+        poseHistory.strokePolyline(c, PARAMS.poseHistoryDrawLength);
     }
 
     public TrajectoryActionBuilder actionBuilder(Pose2d beginPose) {
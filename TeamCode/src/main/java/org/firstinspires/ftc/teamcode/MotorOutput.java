@@ -0,0 +1,73 @@
+package org.firstinspires.ftc.teamcode;
+
+import com.acmerobotics.dashboard.config.Config;
+import com.qualcomm.robotcore.hardware.DcMotor;
+import com.qualcomm.robotcore.util.Range;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Remembers the last power sent to one or more motors (e.g. one side of a tank drive)
+ * and skips <i>setPower</i> calls that would not change it by more than
+ * <i>epsilon</i>. Every <i>setPower</i> is a separate hub command, so skipping the
+ * repeats shortens the loop while the robot is coasting or holding still.
+ * <p>
+ * A command of exactly 0 is always sent when the last power was not 0, so a stop is
+ * never swallowed. Powers written to the motors directly bypass the cache; call
+ * {@link #invalidate()} afterwards (through <i>invalidateMotorCache()</i> on the drive
+ * classes, which own their outputs).
+ */
+@Config
+public final class MotorOutput {
+    public static double epsilon = 0.005;
+
+    private final List<? extends DcMotor> motors;
+    private double lastPower = Double.NaN;
+    private long writesIssued = 0;
+    private long writesSkipped = 0;
+
+    public MotorOutput(DcMotor motor) {
+        this(Collections.singletonList(motor));
+    }
+
+    public MotorOutput(List<? extends DcMotor> motors) {
+        this.motors = motors;
+    }
+
+    public void setPower(double power) {
+        power = Range.clip(power, -1, 1);
+
+        boolean stopping = power == 0 && lastPower != 0;
+        if (!stopping && Math.abs(power - lastPower) < epsilon) {
+            writesSkipped += motors.size();
+            return;
+        }
+
+        // Indexed loop: no iterator allocated per write
+        for (int i = 0; i < motors.size(); i++) {
+            motors.get(i).setPower(power);
+        }
+        lastPower = power;
+        writesIssued += motors.size();
+    }
+
+    /**
+     * Forget the last power so the next {@link #setPower(double)} is always sent.
+     */
+    public void invalidate() {
+        lastPower = Double.NaN;
+    }
+
+    public double getLastPower() {
+        return lastPower;
+    }
+
+    public long getWritesIssued() {
+        return writesIssued;
+    }
+
+    public long getWritesSkipped() {
+        return writesSkipped;
+    }
+}
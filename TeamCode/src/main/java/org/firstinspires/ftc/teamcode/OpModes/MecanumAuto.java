@@ -11,34 +11,61 @@ import com.qualcomm.robotcore.hardware.Servo;
 
 import org.firstinspires.ftc.teamcode.BuildConfig;
 import org.firstinspires.ftc.teamcode.gamepad.InputAutoMapper;
+import org.firstinspires.ftc.teamcode.GeneralConstants;
 import org.firstinspires.ftc.teamcode.gamepad.InputHandler;
+import org.firstinspires.ftc.teamcode.opencv.CameraWarmup;
+import org.firstinspires.ftc.teamcode.opencv.DetectionResult;
+import org.firstinspires.ftc.teamcode.opencv.DashboardStreamer;
 import org.firstinspires.ftc.teamcode.opencv.DrawRectanglePipeline;
+import org.firstinspires.ftc.teamcode.opencv.FrameRecorder;
+import org.firstinspires.ftc.teamcode.opencv.VisionGovernor;
 
-import org.openftc.easyopencv.OpenCvCamera;
-import org.openftc.easyopencv.OpenCvCameraFactory;
 import org.openftc.easyopencv.OpenCvWebcam;
-import org.openftc.easyopencv.OpenCvCameraRotation;
+
+import java.io.File;
+import java.io.IOException;
 
 @Config
 @Autonomous
 public class MecanumAuto extends LinearOpMode {
     public static int c270_width  = 320;
     public static int c270_height = 240;
+    // Render the on-robot viewport (costs an annotated copy of every frame)
+    public static boolean renderViewport = false;
     public static int c1080_width  = 640;
     public static int c1080_height = 480;
     public static double pos1 = 0.0;
     public static double pos2 = 0.5;
     public static double pos3 = 1.0;
+    // How long to wait after start for a frame captured after start
+    public static long freshResultTimeoutMs = 250;
+    // Vote confidence needed to trust the voted rectangle over the latest frame
+    public static double minVoteConfidence = 0.8;
+    // Close the cameras that were not chosen instead of keeping them open but idle
+    public static boolean closeUnusedCameras = true;
+    // Downsample and encode the dashboard stream off the camera thread, within a byte budget
+    public static boolean offloadStream = true;
+    // Record frames for review and replay; every frame is kept once start is pressed.
+    // Each run gets its own folder under recordPath, up to recordMaxMB
+    public static boolean recordFrames = false;
+    public static boolean recordRaw = false;
+    public static String recordPath = "/sdcard/FIRST/vision-frames/auto";
+    public static int recordInterval = 5;
+    public static int recordMaxMB = 200;
 
     public String[] cameraNames = {"WebcamC270", "Webcam1080"};
 
     InputHandler inputHandler;
     OpenCvWebcam webcam;
     DrawRectanglePipeline pipeline;
+    VisionGovernor governor;
+    DashboardStreamer streamer;
+    CameraWarmup warmup;
+    FrameRecorder recorder;
     String camera = null;
     Servo cvServo;
     boolean inputComplete= false;
-    int camera_width, camera_height;
+    boolean visionClosed = false;
     @SuppressLint("DefaultLocale")
     @Override
     public void runOpMode() {
@@ -46,20 +73,35 @@ public class MecanumAuto extends LinearOpMode {
 
         inputHandler = InputAutoMapper.normal.autoMap(this);
 
-        while (!inputComplete) {
+        // Open every camera now so the chosen one is already voting when X is pressed
+        DrawRectanglePipeline[] pipelines = {
+                new DrawRectanglePipeline(telemetry, cameraNames[0], c270_width, c270_height),
+                new DrawRectanglePipeline(telemetry, cameraNames[1], c1080_width, c1080_height)
+        };
+        warmup = new CameraWarmup(hardwareMap);
+        warmup.addCamera(cameraNames[0], c270_width, c270_height, pipelines[0]);
+        warmup.addCamera(cameraNames[1], c1080_width, c1080_height, pipelines[1]);
+        warmup.openAll(renderViewport);
+        try {
+            runWithCameras(pipelines);
+        } finally {
+            // Every way out, including stop during init and exceptions, frees the cameras
+            closeVision();
+        }
+    }
+
+    @SuppressLint("DefaultLocale")
+    void runWithCameras(DrawRectanglePipeline[] pipelines) {
+        while (!inputComplete && opModeInInit()) {
             inputHandler.loop();
             if (inputHandler.up("D1:X")) {
                 inputComplete = true;
             }
             if (inputHandler.up("D1:Y")) {
                 camera = cameraNames[0];
-                camera_width = c270_width;
-                camera_height = c270_height;
             }
             if (inputHandler.up("D1:A")) {
                 camera = cameraNames[1];
-                camera_width = c1080_width;
-                camera_height = c1080_height;
             }
 
             telemetry.addData("Compiled on:", BuildConfig.COMPILATION_DATE);
@@ -68,52 +110,80 @@ public class MecanumAuto extends LinearOpMode {
             telemetry.addLine("Button A: Webcam 1080");
             telemetry.addLine("Button Y: Webcam C270");
             telemetry.addData("Press X to finalize values", inputComplete);
+            warmup.addTelemetry(telemetry);
             telemetry.update();
         }
+        if (isStopRequested()) return;
 
-        pipeline = new DrawRectanglePipeline(telemetry, camera);
+        CameraWarmup.Camera selected = warmup.select(camera, closeUnusedCameras);
+        webcam = selected.webcam;
+        pipeline = cameraNames[0].equals(camera) ? pipelines[0] : pipelines[1];
 
         cvServo = hardwareMap.get(Servo.class, "servo");
 
-        int cameraMonitorViewId = hardwareMap.appContext
-                .getResources()
-                .getIdentifier("cameraMonitorViewId", "id", hardwareMap.appContext.getPackageName());
-
-        webcam = OpenCvCameraFactory
-                .getInstance()
-                //.createWebcam(hardwareMap.get(WebcamName.class, camera), cameraMonitorViewId);
-                .createWebcam(hardwareMap.get(org.firstinspires.ftc.robotcore.external.hardware.camera.WebcamName.class, camera),
-                cameraMonitorViewId);
+        // Starts the dashboard stream at full rate and throttles it with the analysis
+        governor = new VisionGovernor(pipeline, pipeline.voter);
+        if (offloadStream) {
+            streamer = new DashboardStreamer();
+            governor.setStreamer(streamer);
+        } else {
+            governor.setStreamSource(webcam);
+        }
 
-        webcam.setPipeline(pipeline);
+        if (recordFrames) {
+            try {
+                FrameRecorder.Format format = recordRaw ? FrameRecorder.Format.RAW : FrameRecorder.Format.JPEG;
+                recorder = new FrameRecorder(FrameRecorder.newRunDestination(new File(recordPath), format),
+                        format, 4, recordInterval, recordMaxMB * 1_000_000L);
+                pipeline.setRecorder(recorder);
+            } catch (IOException e) {
+                telemetry.addData("Recorder disabled", e.getMessage());
+            }
+        }
 
-        FtcDashboard dashboard = FtcDashboard.getInstance();
-        dashboard.startCameraStream(webcam, 30); // 30 FPS stream
+        while (opModeInInit()) {
+            governor.update(0);
 
-        webcam.openCameraDeviceAsync(new OpenCvCamera.AsyncCameraOpenListener() {
-            @Override
-            public void onOpened() {
-                webcam.startStreaming(camera_width, camera_height, OpenCvCameraRotation.UPRIGHT);
+            telemetry.addData(camera, " will be used");
+            telemetry.addData("Time to first frame (ms)", String.format("%.0f", selected.getTimeToFirstFrameMs()));
+            telemetry.addData("Voted Rectangle", pipeline.getVotedRect());
+            telemetry.addData("Vote confidence", String.format("%.2f", pipeline.voter.getConfidence()));
+            governor.addTelemetry(telemetry);
+            if (recorder != null) {
+                recorder.addTelemetry(telemetry);
             }
+            telemetry.addLine("Waiting for start");
+            telemetry.update();
+        }
+        long startNanos = System.nanoTime();
+        if (recorder != null) {
+            recorder.setSampleInterval(1);
+        }
 
-            @Override
-            public void onError(int errorCode) {
-                telemetry.addData("Camera Error", errorCode);
-                telemetry.update();
+        // A stable vote is already the answer; otherwise look at a frame taken after start
+        DetectionResult result = pipeline.getLatestResult();
+        if (!pipeline.voter.isStable(minVoteConfidence)) {
+            governor.requestFullRate(true);
+            governor.update(0);
+            try {
+                result = pipeline.awaitResultAfter(startNanos, freshResultTimeoutMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-        });
-
-        telemetry.addData(camera, " will be used");
-        telemetry.addLine("Waiting for start");
-        telemetry.update();
-
-        waitForStart();
+        }
 
-        webcam.stopStreaming();
+        closeVision();
 
         if (isStopRequested()) return;
 
-        switch (pipeline.selectedRect) {
+        int selectedRect;
+        if (pipeline.voter.isStable(minVoteConfidence)) {
+            selectedRect = pipeline.getVotedRect();
+        } else {
+            selectedRect = (result == null) ? pipeline.selectedRect : DrawRectanglePipeline.rectNumber(result.selection);
+        }
+
+        switch (selectedRect) {
             case 1:
                 telemetry.addData("Set Servo to: ", String.format("%.2f",pos1));
                 cvServo.setPosition(pos1);
@@ -128,8 +198,42 @@ public class MecanumAuto extends LinearOpMode {
                 break;
         }
 
-        telemetry.addData("Selected Rectangle: ",pipeline.selectedRect);
+        telemetry.addData("Selected Rectangle: ",selectedRect);
+        telemetry.addData("Vote confidence", String.format("%.2f", pipeline.voter.getConfidence()));
+        if (recorder != null) {
+            recorder.addTelemetry(telemetry);
+        }
+        if (result != null) {
+            telemetry.addData("Frame", result.frameSequence);
+            telemetry.addData("Frame age (ms)", String.format("%.1f", result.getAgeNanos() * GeneralConstants.NANO2MS));
+            telemetry.addData("Latency (ms)", String.format("%.1f", result.getLatencyNanos() * GeneralConstants.NANO2MS));
+        }
         telemetry.update();
         sleep(1000);
     }
+
+    /**
+     * Stop and close every camera, release every pipeline, the streamer and the recorder.
+     * Safe to call more than once.
+     */
+    void closeVision() {
+        if (visionClosed) {
+            return;
+        }
+        visionClosed = true;
+
+        // Stops all frame callbacks before the streamer and recorder are freed
+        warmup.closeAll();
+
+        if (streamer != null) {
+            streamer.release();
+        }
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                telemetry.addData("Recorder error", e.getMessage());
+            }
+        }
+    }
 }
@@ -11,23 +11,43 @@ import org.firstinspires.ftc.robotcore.external.hardware.camera.WebcamName;
 import org.firstinspires.ftc.teamcode.BuildConfig;
 import org.firstinspires.ftc.teamcode.gamepad.InputAutoMapper;
 import org.firstinspires.ftc.teamcode.gamepad.InputHandler;
+import org.firstinspires.ftc.teamcode.opencv.DashboardStreamer;
 import org.firstinspires.ftc.teamcode.opencv.DrawRectanglePipeline;
+import org.firstinspires.ftc.teamcode.opencv.FrameRecorder;
+import org.firstinspires.ftc.teamcode.opencv.VisionGovernor;
 import org.openftc.easyopencv.OpenCvCamera;
 import org.openftc.easyopencv.OpenCvCameraFactory;
 import org.openftc.easyopencv.OpenCvCameraRotation;
 import org.openftc.easyopencv.OpenCvWebcam;
 
+import java.io.File;
+import java.io.IOException;
+
 @Config
 @TeleOp
 public class MecanumTeleOpWithCamera extends LinearOpMode {
     public static int c270_width  = 320;
     public static int c270_height = 240;
+    // Render the on-robot viewport (costs an annotated copy of every frame)
+    public static boolean renderViewport = false;
+    // Downsample and encode the dashboard stream off the camera thread, within a byte budget
+    public static boolean offloadStream = true;
+    // Sample camera frames for review and replay; each run gets its own folder under
+    // recordPath, up to recordMaxMB
+    public static boolean recordFrames = false;
+    public static boolean recordRaw = false;
+    public static String recordPath = "/sdcard/FIRST/vision-frames/teleop";
+    public static int recordInterval = 30;
+    public static int recordMaxMB = 200;
 
     public String[] cameraNames = {"WebcamC270", "Webcam1080"};
 
     InputHandler inputHandler;
     OpenCvWebcam webcam;
     DrawRectanglePipeline pipeline;
+    VisionGovernor governor;
+    DashboardStreamer streamer;
+    FrameRecorder recorder;
     String camera = null;
     Servo cvServo;
     int camera_width, camera_height;
@@ -41,7 +61,7 @@ public class MecanumTeleOpWithCamera extends LinearOpMode {
         camera_width = c270_width;
         camera_height = c270_height;
 
-        pipeline = new DrawRectanglePipeline(telemetry, camera);
+        pipeline = new DrawRectanglePipeline(telemetry, camera, camera_width, camera_height);
 
         cvServo = hardwareMap.get(Servo.class, "servo");
 
@@ -54,9 +74,30 @@ public class MecanumTeleOpWithCamera extends LinearOpMode {
                 .createWebcam(hardwareMap.get(WebcamName.class, camera), cameraMonitorViewId);
 
         webcam.setPipeline(pipeline);
+        if (!renderViewport) {
+            webcam.pauseViewport();
+        }
+        pipeline.setViewportAttached(renderViewport);
+
+        // Starts the dashboard stream at full rate and throttles it with the analysis
+        governor = new VisionGovernor(pipeline, pipeline.voter);
+        if (offloadStream) {
+            streamer = new DashboardStreamer();
+            governor.setStreamer(streamer);
+        } else {
+            governor.setStreamSource(webcam);
+        }
 
-        FtcDashboard dashboard = FtcDashboard.getInstance();
-        dashboard.startCameraStream(webcam, 30); // 30 FPS stream
+        if (recordFrames) {
+            try {
+                FrameRecorder.Format format = recordRaw ? FrameRecorder.Format.RAW : FrameRecorder.Format.JPEG;
+                recorder = new FrameRecorder(FrameRecorder.newRunDestination(new File(recordPath), format),
+                        format, 4, recordInterval, recordMaxMB * 1_000_000L);
+                pipeline.setRecorder(recorder);
+            } catch (IOException e) {
+                telemetry.addData("Recorder disabled", e.getMessage());
+            }
+        }
 
         webcam.openCameraDeviceAsync(new OpenCvCamera.AsyncCameraOpenListener() {
             @Override
@@ -77,9 +118,38 @@ public class MecanumTeleOpWithCamera extends LinearOpMode {
 
         waitForStart();
 
+        long lastLoopNanos = System.nanoTime();
         while (opModeIsActive()) {
+            long now = System.nanoTime();
+            governor.update(now - lastLoopNanos);
+            lastLoopNanos = now;
+
             telemetry.addData("Streaming", "Camera is running");
+            telemetry.addData("Frames analyzed", pipeline.getFramesAnalyzed());
+            telemetry.addData("Frames dropped", pipeline.getFramesDropped());
+            governor.addTelemetry(telemetry);
+            if (recorder != null) {
+                recorder.addTelemetry(telemetry);
+            }
+            if (streamer != null) {
+                streamer.addTelemetry(telemetry);
+            }
+            pipeline.stageTimer.addTelemetry(telemetry);
+            pipeline.stageTimer.writeFlightRecorder();
             telemetry.update();
         }
+
+        webcam.stopStreaming();
+        pipeline.release();
+        if (streamer != null) {
+            streamer.release();
+        }
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                // Nothing to report to once the OpMode has stopped
+            }
+        }
     }
 }
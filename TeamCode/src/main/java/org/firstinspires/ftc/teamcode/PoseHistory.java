@@ -0,0 +1,109 @@
+package org.firstinspires.ftc.teamcode;
+
+import com.acmerobotics.dashboard.canvas.Canvas;
+import com.acmerobotics.roadrunner.Pose2d;
+
+/**
+ * Fixed-capacity ring of estimated poses, stored as parallel primitive columns so
+ * recording a pose every loop allocates nothing. Once full, the oldest pose is
+ * overwritten.
+ * <p>
+ * Index 0 is the oldest pose held and {@link #size()} - 1 the newest.
+ */
+public final class PoseHistory {
+    private final double[] x, y, heading;
+    private final long[] timestamp;
+    private int next = 0;
+    private int size = 0;
+
+    // FTC Dashboard's default telemetry transmission interval
+    static final long POLYLINE_REFRESH_NANOS = 100_000_000;
+
+    // Polyline export. FTC Dashboard queues packets and serializes a whole batch on its
+    // own thread once per transmission interval, so any number of queued canvases may
+    // hold these arrays. They are never written after being handed out: a fresh pair is
+    // built at most once per interval, and packets in between share the last one.
+    private double[] polylineX = new double[0];
+    private double[] polylineY = new double[0];
+    private long polylineNanos = 0;
+
+    public PoseHistory(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(getClass().getSimpleName() + ": capacity must be at least 1");
+        }
+
+        x = new double[capacity];
+        y = new double[capacity];
+        heading = new double[capacity];
+        timestamp = new long[capacity];
+    }
+
+    public void add(Pose2d pose, long timestampNanos) {
+        x[next] = pose.position.x;
+        y[next] = pose.position.y;
+        heading[next] = pose.heading.toDouble();
+        timestamp[next] = timestampNanos;
+
+        next = (next + 1) % x.length;
+        size = Math.min(size + 1, x.length);
+    }
+
+    public void clear() {
+        next = 0;
+        size = 0;
+        polylineNanos = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return x.length;
+    }
+
+    private int slot(int index) {
+        return (next - size + index + x.length) % x.length;
+    }
+
+    public double getX(int index) {
+        return x[slot(index)];
+    }
+
+    public double getY(int index) {
+        return y[slot(index)];
+    }
+
+    public double getHeading(int index) {
+        return heading[slot(index)];
+    }
+
+    public long getTimestamp(int index) {
+        return timestamp[slot(index)];
+    }
+
+    /**
+     * Draw the newest <i>maxPoints</i> poses as a polyline with the canvas' current
+     * stroke. The points are copied at most once per dashboard transmission interval
+     * rather than every tick, so the drawn path may lag the pose by up to that interval.
+     */
+    public void strokePolyline(Canvas c, int maxPoints) {
+        long now = System.nanoTime();
+        if (polylineNanos == 0 || now - polylineNanos >= POLYLINE_REFRESH_NANOS) {
+            polylineNanos = now;
+
+            int count = Math.min(size, maxPoints);
+            double[] xs = new double[count];
+            double[] ys = new double[count];
+            int first = size - count;
+            for (int i = 0; i < count; i++) {
+                int s = slot(first + i);
+                xs[i] = x[s];
+                ys[i] = y[s];
+            }
+            polylineX = xs;
+            polylineY = ys;
+        }
+        c.strokePolyline(polylineX, polylineY);
+    }
+}
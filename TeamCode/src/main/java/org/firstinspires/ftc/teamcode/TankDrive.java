@@ -56,7 +56,6 @@ import org.firstinspires.ftc.teamcode.messages.TankLocalizerInputsMessage;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 public final class TankDrive {
@@ -94,6 +93,15 @@ public final class TankDrive {
         // turn controller gains
         public double turnGain = 0.0;
         public double turnVelGain = 0.0;
+
+        // pose history, in updatePoseEstimate() calls (6000 holds a 30 s autonomous at 200 Hz)
+        public int poseHistoryCapacity = 6000;
+        // number of most recent poses drawn on the dashboard field
+        public int poseHistoryDrawLength = 100;
+
+        // clear the bulk cache once per control tick instead of letting reads trigger it;
+        // other bulk-cached reads go stale while the drive is not updating the pose
+        public boolean manualBulkCaching = false;
     }
 
     public static Params PARAMS = new Params();
@@ -111,13 +119,17 @@ public final class TankDrive {
             new ProfileAccelConstraint(PARAMS.minProfileAccel, PARAMS.maxProfileAccel);
 
     public final List<DcMotorEx> leftMotors, rightMotors;
+    // Drive code writes powers through these so unchanged powers are not re-sent
+    private final MotorOutput leftOutput, rightOutput;
 
     public final LazyImu lazyImu;
 
     public final VoltageSensor voltageSensor;
+    public final VoltageSampler voltageSampler;
 
     public final Localizer localizer;
-    private final LinkedList<Pose2d> poseHistory = new LinkedList<>();
+    public final LoopCycle loopCycle;
+    public final PoseHistory poseHistory = new PoseHistory(PARAMS.poseHistoryCapacity);
 
     private final DownsampledWriter estimatedPoseWriter = new DownsampledWriter("ESTIMATED_POSE", 50_000_000);
     private final DownsampledWriter targetPoseWriter = new DownsampledWriter("TARGET_POSE", 50_000_000);
@@ -228,9 +240,8 @@ public final class TankDrive {
     public TankDrive(HardwareMap hardwareMap, Pose2d pose) {
         LynxFirmware.throwIfModulesAreOutdated(hardwareMap);
 
-        for (LynxModule module : hardwareMap.getAll(LynxModule.class)) {
-            module.setBulkCachingMode(LynxModule.BulkCachingMode.AUTO);
-        }
+        loopCycle = new LoopCycle(hardwareMap.getAll(LynxModule.class), PARAMS.manualBulkCaching,
+                this::getMotorWritesIssued);
 
         // TODO: make sure your config has motors with these names (or change them)
         //   add additional motors on each side if you have them
@@ -238,6 +249,9 @@ public final class TankDrive {
         leftMotors = Arrays.asList(hardwareMap.get(DcMotorEx.class, "left"));
         rightMotors = Arrays.asList(hardwareMap.get(DcMotorEx.class, "right"));
 
+        leftOutput = new MotorOutput(leftMotors);
+        rightOutput = new MotorOutput(rightMotors);
+
         for (DcMotorEx m : leftMotors) {
             m.setZeroPowerBehavior(DcMotor.ZeroPowerBehavior.BRAKE);
         }
@@ -254,6 +268,7 @@ public final class TankDrive {
                 PARAMS.logoFacingDirection, PARAMS.usbFacingDirection));
 
         voltageSensor = hardwareMap.voltageSensor.iterator().next();
+        voltageSampler = new VoltageSampler(voltageSensor);
 
         localizer = new DriveLocalizer(pose);
 
@@ -269,12 +284,8 @@ public final class TankDrive {
             maxPowerMag = Math.max(maxPowerMag, power.value());
         }
 
-        for (DcMotorEx m : leftMotors) {
-            m.setPower(wheelVels.left.get(0) / maxPowerMag);
-        }
-        for (DcMotorEx m : rightMotors) {
-            m.setPower(wheelVels.right.get(0) / maxPowerMag);
-        }
+        leftOutput.setPower(wheelVels.left.get(0) / maxPowerMag);
+        rightOutput.setPower(wheelVels.right.get(0) / maxPowerMag);
     }
 
     public final class FollowTrajectoryAction implements Action {
@@ -300,6 +311,8 @@ public final class TankDrive {
 
         @Override
         public boolean run(@NonNull TelemetryPacket p) {
+            loopCycle.beginTick();
+
             double t;
             if (beginTs < 0) {
                 beginTs = Actions.now();
@@ -309,12 +322,8 @@ public final class TankDrive {
             }
 
             if (t >= timeTrajectory.duration) {
-                for (DcMotorEx m : leftMotors) {
-                    m.setPower(0);
-                }
-                for (DcMotorEx m : rightMotors) {
-                    m.setPower(0);
-                }
+                leftOutput.setPower(0);
+                rightOutput.setPower(0);
 
                 return false;
             }
@@ -331,23 +340,20 @@ public final class TankDrive {
             driveCommandWriter.write(new DriveCommandMessage(command));
 
             TankKinematics.WheelVelocities<Time> wheelVels = kinematics.inverse(command);
-            double voltage = voltageSensor.getVoltage();
+            double voltage = voltageSampler.getVoltage();
             final MotorFeedforward feedforward = new MotorFeedforward(PARAMS.kS,
                     PARAMS.kV / PARAMS.inPerTick, PARAMS.kA / PARAMS.inPerTick);
             double leftPower = feedforward.compute(wheelVels.left) / voltage;
             double rightPower = feedforward.compute(wheelVels.right) / voltage;
             tankCommandWriter.write(new TankCommandMessage(voltage, leftPower, rightPower));
 
-            for (DcMotorEx m : leftMotors) {
-                m.setPower(leftPower);
-            }
-            for (DcMotorEx m : rightMotors) {
-                m.setPower(rightPower);
-            }
+            leftOutput.setPower(leftPower);
+            rightOutput.setPower(rightPower);
 
             p.put("x", localizer.getPose().position.x);
             p.put("y", localizer.getPose().position.y);
             p.put("heading (deg)", Math.toDegrees(localizer.getPose().heading.toDouble()));
+            p.put("hub transactions/loop", loopCycle.getTransactionsLastTick());
 
             Pose2d error = txWorldTarget.value().minusExp(localizer.getPose());
             p.put("xError", error.position.x);
@@ -390,6 +396,8 @@ public final class TankDrive {
 
         @Override
         public boolean run(@NonNull TelemetryPacket p) {
+            loopCycle.beginTick();
+
             double t;
             if (beginTs < 0) {
                 beginTs = Actions.now();
@@ -399,12 +407,8 @@ public final class TankDrive {
             }
 
             if (t >= turn.duration) {
-                for (DcMotorEx m : leftMotors) {
-                    m.setPower(0);
-                }
-                for (DcMotorEx m : rightMotors) {
-                    m.setPower(0);
-                }
+                leftOutput.setPower(0);
+                rightOutput.setPower(0);
 
                 return false;
             }
@@ -424,19 +428,15 @@ public final class TankDrive {
             driveCommandWriter.write(new DriveCommandMessage(command));
 
             TankKinematics.WheelVelocities<Time> wheelVels = kinematics.inverse(command);
-            double voltage = voltageSensor.getVoltage();
+            double voltage = voltageSampler.getVoltage();
             final MotorFeedforward feedforward = new MotorFeedforward(PARAMS.kS,
                     PARAMS.kV / PARAMS.inPerTick, PARAMS.kA / PARAMS.inPerTick);
             double leftPower = feedforward.compute(wheelVels.left) / voltage;
             double rightPower = feedforward.compute(wheelVels.right) / voltage;
             tankCommandWriter.write(new TankCommandMessage(voltage, leftPower, rightPower));
 
-            for (DcMotorEx m : leftMotors) {
-                m.setPower(leftPower);
-            }
-            for (DcMotorEx m : rightMotors) {
-                m.setPower(rightPower);
-            }
+            leftOutput.setPower(leftPower);
+            rightOutput.setPower(rightPower);
 
             Canvas c = p.fieldOverlay();
             drawPoseHistory(c);
@@ -460,13 +460,34 @@ public final class TankDrive {
         }
     }
 
+    /**
+     * Forget the last power sent to each side, so the next command is always written.
+     * Call after setting drive motor powers directly instead of through
+     * {@link #setDrivePowers}.
+     */
+    public void invalidateMotorCache() {
+        leftOutput.invalidate();
+        rightOutput.invalidate();
+    }
+
+    /**
+     * @return Motor power commands sent to the hub so far
+     */
+    public long getMotorWritesIssued() {
+        return leftOutput.getWritesIssued() + rightOutput.getWritesIssued();
+    }
+
+    /**
+     * @return Motor power commands skipped because the power had not changed
+     */
+    public long getMotorWritesSkipped() {
+        return leftOutput.getWritesSkipped() + rightOutput.getWritesSkipped();
+    }
+
     public PoseVelocity2d updatePoseEstimate() {
+        loopCycle.beforePoseUpdate();
         PoseVelocity2d vel = localizer.update();
-        poseHistory.add(localizer.getPose());
-
-        while (poseHistory.size() > 100) {
-            poseHistory.removeFirst();
-        }
+        poseHistory.add(localizer.getPose(), System.nanoTime());
 
         estimatedPoseWriter.write(new PoseMessage(localizer.getPose()));
 
@@ -475,20 +496,9 @@ public final class TankDrive {
     }
 
     private void drawPoseHistory(Canvas c) {
-        double[] xPoints = new double[poseHistory.size()];
-        double[] yPoints = new double[poseHistory.size()];
-
-        int i = 0;
-        for (Pose2d t : poseHistory) {
-            xPoints[i] = t.position.x;
-            yPoints[i] = t.position.y;
-
-            i++;
-        }
-
         c.setStrokeWidth(1);
         c.setStroke("#3F51B5");
-        c.strokePolyline(xPoints, yPoints);
+        poseHistory.strokePolyline(c, PARAMS.poseHistoryDrawLength);
     }
 
     public TrajectoryActionBuilder actionBuilder(Pose2d beginPose) {
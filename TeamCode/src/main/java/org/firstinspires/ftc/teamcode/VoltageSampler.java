@@ -0,0 +1,120 @@
+package org.firstinspires.ftc.teamcode;
+
+import com.acmerobotics.dashboard.config.Config;
+import com.qualcomm.robotcore.hardware.VoltageSensor;
+
+/**
+ * Reads the battery voltage on a background thread at a low rate and keeps a filtered
+ * value, so control loops get voltage compensation without a hub transaction per tick.
+ * <p>
+ * {@link #getVoltage()} only reads a volatile field. The sampling thread stops by
+ * itself once nobody has asked for the voltage for <i>idleTimeoutMs</i> (e.g. after
+ * the OpMode ends), and the next read starts it again.
+ */
+@Config
+public final class VoltageSampler {
+    public static class Params {
+        public long sampleIntervalMs = 50;
+        // Weight of the newest sample in the filtered voltage
+        public double filterAlpha = 0.3;
+        public long idleTimeoutMs = 1000;
+    }
+
+    public static Params PARAMS = new Params();
+
+    // Used until the hub reports a real voltage
+    static final double NOMINAL_VOLTAGE = 12.0;
+    private static final int SEED_ATTEMPTS = 5;
+
+    private final VoltageSensor sensor;
+
+    private volatile double voltage;
+    // False while <voltage> is only the nominal fallback
+    private volatile boolean measured;
+    private volatile long lastSampleNanos;
+    private volatile long lastReadNanos;
+    private volatile long samples = 0;
+    private volatile Thread sampler = null;
+
+    /**
+     * Reads the voltage immediately so the first {@link #getVoltage()} is valid. The hub
+     * reports 0 while it is being reset, which would divide the first feedforward by 0;
+     * zeros are retried a few times and then replaced by {@link #NOMINAL_VOLTAGE} until the
+     * sampling thread gets a real reading.
+     */
+    public VoltageSampler(VoltageSensor sensor) {
+        this.sensor = sensor;
+
+        double sample = sensor.getVoltage();
+        for (int attempt = 1; sample <= 0 && attempt < SEED_ATTEMPTS; attempt++) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            sample = sensor.getVoltage();
+        }
+        measured = sample > 0;
+        voltage = measured ? sample : NOMINAL_VOLTAGE;
+
+        lastSampleNanos = System.nanoTime();
+        lastReadNanos = lastSampleNanos;
+    }
+
+    /**
+     * @return Filtered battery voltage; never blocks on the hub
+     */
+    public double getVoltage() {
+        lastReadNanos = System.nanoTime();
+        if (sampler == null) {
+            start();
+        }
+        return voltage;
+    }
+
+    private synchronized void start() {
+        if (sampler != null) {
+            return;
+        }
+
+        sampler = new Thread(this::sampleLoop, getClass().getSimpleName());
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    private void sampleLoop() {
+        try {
+            while (System.nanoTime() - lastReadNanos < PARAMS.idleTimeoutMs * 1_000_000L) {
+                double sample = sensor.getVoltage();
+                // The hub reports 0 while it is being reset; keep the last good value
+                if (sample > 0) {
+                    // The first real reading replaces the nominal fallback outright
+                    voltage = measured ? voltage + PARAMS.filterAlpha * (sample - voltage) : sample;
+                    measured = true;
+                    lastSampleNanos = System.nanoTime();
+                    samples++;
+                }
+
+                Thread.sleep(PARAMS.sampleIntervalMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                sampler = null;
+            }
+        }
+    }
+
+    /**
+     * @return Time since the last good sample
+     */
+    public double getSampleAgeMs() {
+        return (System.nanoTime() - lastSampleNanos) * GeneralConstants.NANO2MS;
+    }
+
+    public long getSampleCount() {
+        return samples;
+    }
+}
@@ -13,6 +13,16 @@ public final class DriveCommandMessage {
     public double angularAcceleration;
 
     public DriveCommandMessage(PoseVelocity2dDual<Time> poseVelocity) {
+        set(poseVelocity);
+    }
+
+    /**
+     * Empty message to be filled with {@link #set(PoseVelocity2dDual)} and reused every loop.
+     */
+    public DriveCommandMessage() {
+    }
+
+    public DriveCommandMessage set(PoseVelocity2dDual<Time> poseVelocity) {
         this.timestamp = System.nanoTime();
         this.forwardVelocity = poseVelocity.linearVel.x.get(0);
         this.forwardAcceleration = poseVelocity.linearVel.x.get(1);
@@ -20,5 +30,6 @@ public final class DriveCommandMessage {
         this.lateralAcceleration = poseVelocity.linearVel.y.get(1);
         this.angularVelocity = poseVelocity.angVel.get(0);
         this.angularAcceleration = poseVelocity.angVel.get(1);
+        return this;
     }
 }
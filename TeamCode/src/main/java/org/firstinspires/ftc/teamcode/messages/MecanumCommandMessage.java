@@ -9,11 +9,22 @@ public final class MecanumCommandMessage {
     public double rightFrontPower;
 
     public MecanumCommandMessage(double voltage, double leftFrontPower, double leftBackPower, double rightBackPower, double rightFrontPower) {
+        set(voltage, leftFrontPower, leftBackPower, rightBackPower, rightFrontPower);
+    }
+
+    /**
+     * Empty message to be filled with {@link #set} and reused every loop.
+     */
+    public MecanumCommandMessage() {
+    }
+
+    public MecanumCommandMessage set(double voltage, double leftFrontPower, double leftBackPower, double rightBackPower, double rightFrontPower) {
         this.timestamp = System.nanoTime();
         this.voltage = voltage;
         this.leftFrontPower = leftFrontPower;
         this.leftBackPower = leftBackPower;
         this.rightBackPower = rightBackPower;
         this.rightFrontPower = rightFrontPower;
+        return this;
     }
 }
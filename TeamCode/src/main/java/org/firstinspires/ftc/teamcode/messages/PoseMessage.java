@@ -9,10 +9,21 @@ public final class PoseMessage {
     public double heading;
 
     public PoseMessage(Pose2d pose) {
+        set(pose);
+    }
+
+    /**
+     * Empty message to be filled with {@link #set(Pose2d)} and reused every loop.
+     */
+    public PoseMessage() {
+    }
+
+    public PoseMessage set(Pose2d pose) {
         this.timestamp = System.nanoTime();
         this.x = pose.position.x;
         this.y = pose.position.y;
         this.heading = pose.heading.toDouble();
+        return this;
     }
 }
 
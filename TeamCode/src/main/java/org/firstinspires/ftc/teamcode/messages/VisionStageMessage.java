@@ -0,0 +1,19 @@
+package org.firstinspires.ftc.teamcode.messages;
+
+public final class VisionStageMessage {
+    public long timestamp;
+    public String stage;
+    public long samples;
+    public double p50Ms;
+    public double p95Ms;
+    public double p99Ms;
+
+    public VisionStageMessage(String stage, long samples, double p50Ms, double p95Ms, double p99Ms) {
+        this.timestamp = System.nanoTime();
+        this.stage = stage;
+        this.samples = samples;
+        this.p50Ms = p50Ms;
+        this.p95Ms = p95Ms;
+        this.p99Ms = p99Ms;
+    }
+}
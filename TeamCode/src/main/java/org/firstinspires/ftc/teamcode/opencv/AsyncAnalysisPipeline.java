@@ -0,0 +1,406 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import org.opencv.core.Mat;
+import org.openftc.easyopencv.OpenCvPipeline;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base class for pipelines whose analysis should not hold up the camera.
+ * <p>
+ * In asynchronous mode {@link #processFrame(Mat)} only copies the frame into a ring
+ * of three pre-allocated Mats (triple buffering) and wakes a dedicated analysis
+ * thread, then draws the overlay from the most recent result. The camera thread never
+ * waits for analysis: if a new frame arrives before the previous one was picked up,
+ * the stale frame is dropped and counted in {@link #getFramesDropped()}.
+ * <p>
+ * In synchronous mode {@link #analyze(Mat)} runs inline on the camera thread, exactly
+ * like a plain <i>OpenCvPipeline</i>.
+ * <p>
+ * A pipeline that only needs coarse pixels can override {@link #getAnalysisLevel()} to
+ * analyze a downscaled level of an {@link ImagePyramid}; the overlay is still drawn on
+ * the full-resolution frame.
+ * <p>
+ * Subclasses must publish results through volatile or otherwise thread-safe fields,
+ * since {@link #analyze(Mat)} and {@link #drawOverlay(Mat)} run on different threads.
+ * The simplest way is {@link #publish(int, double[])}, which makes an immutable
+ * {@link DetectionResult} available to {@link #getLatestResult()} and
+ * {@link #awaitResultAfter(long, long)}.
+ */
+public abstract class AsyncAnalysisPipeline extends OpenCvPipeline {
+    static final int RING_SIZE = 3;
+    private static final int FRESH = 1 << 30;
+
+    private final boolean async;
+    private final Mat[] ring = new Mat[RING_SIZE];
+    private final long[] ringSequence = new long[RING_SIZE];
+    private final long[] ringCaptureNanos = new long[RING_SIZE];
+
+    // Triple buffer: the camera thread owns <back>, the worker owns <front>, and the
+    // slot in between is exchanged atomically, tagged FRESH until the worker takes it
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;
+    private int front = 2;
+
+    private Thread worker;
+    private volatile boolean running = false;
+    private volatile RuntimeException workerError = null;
+
+    private volatile long firstFrameNanos = 0;
+    private volatile long framesCaptured = 0;
+    private volatile long framesAnalyzed = 0;
+    private volatile long framesDropped = 0;
+    private volatile double averageAnalysisNanos = 0;
+
+    private volatile VisionGovernor governor = null;
+    private volatile FrameRecorder recorder = null;
+    private volatile DashboardStreamer streamer = null;
+
+    private final ImagePyramid pyramid = new ImagePyramid();
+
+    // Annotation goes into its own buffer so the camera frame stays pristine
+    private final Mat annotated = new Mat();
+    private volatile boolean viewportAttached = true;
+    private volatile boolean streamAttached = false;
+
+    // Frame currently being analyzed; only touched by the analyzing thread
+    private long analyzedSequence = 0;
+    private long analyzedCaptureNanos = 0;
+
+    private final Object resultLock = new Object();
+    private volatile DetectionResult latestResult = null;
+
+    /**
+     * @param async True to analyze on a background thread, false to analyze inline
+     */
+    protected AsyncAnalysisPipeline(boolean async) {
+        this.async = async;
+        for (int i = 0; i < RING_SIZE; i++) {
+            ring[i] = new Mat();
+        }
+    }
+
+    /**
+     * Analyze one frame. Runs on the analysis thread in asynchronous mode.
+     * The frame must not be retained after this method returns.
+     */
+    protected abstract void analyze(Mat frame);
+
+    /**
+     * Annotate the frame that will be shown on the viewport and dashboard. Runs on the
+     * camera thread, on a copy of the camera frame, and only while a viewport or
+     * dashboard stream is attached.
+     */
+    protected void drawOverlay(Mat input) {
+    }
+
+    /**
+     * Pyramid level passed to {@link #analyze(Mat)}: 0 for the camera frame, 1 for half
+     * the width and height, 2 for a quarter, up to {@link ImagePyramid#MAX_LEVEL}.
+     * Must not change while streaming.
+     */
+    protected int getAnalysisLevel() {
+        return 0;
+    }
+
+    /**
+     * Copy the frame to analyze (already at the analysis level) into a ring slot.
+     * Override to capture only part of the frame.
+     */
+    protected void captureFrame(Mat input, Mat slot) {
+        input.copyTo(slot);
+    }
+
+    @Override
+    public void init(Mat firstFrame) {
+        if (firstFrameNanos == 0) {
+            firstFrameNanos = System.nanoTime();
+        }
+        if (!async || worker != null) {
+            return;
+        }
+
+        Mat analyzed = pyramid.build(firstFrame, getAnalysisLevel());
+        for (Mat slot : ring) {
+            slot.create(analyzed.size(), analyzed.type());
+        }
+
+        running = true;
+        worker = new Thread(this::analysisLoop, getClass().getSimpleName() + "-analysis");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public final Mat processFrame(Mat input) {
+        VisionGovernor governor = this.governor;
+        if (governor != null && !governor.shouldAnalyze()) {
+            return render(input);
+        }
+
+        record(input, framesCaptured + 1);
+
+        if (!async) {
+            analyzedSequence = framesCaptured + 1;
+            analyzedCaptureNanos = System.nanoTime();
+            timedAnalyze(pyramid.build(input, getAnalysisLevel()));
+            framesCaptured++;
+            framesAnalyzed++;
+            return render(input);
+        }
+
+        if (workerError != null) {
+            throw workerError;
+        }
+
+        ringSequence[back] = framesCaptured + 1;
+        ringCaptureNanos[back] = System.nanoTime();
+        captureFrame(pyramid.build(input, getAnalysisLevel()), ring[back]);
+        int previous = middle.getAndSet(back | FRESH);
+        if ((previous & FRESH) != 0) {
+            framesDropped++;
+        }
+        back = previous & ~FRESH;
+        framesCaptured++;
+
+        LockSupport.unpark(worker);
+
+        return render(input);
+    }
+
+    private void record(Mat input, long sequence) {
+        FrameRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.offer(input, sequence);
+        }
+    }
+
+    private Mat render(Mat input) {
+        DashboardStreamer streamer = this.streamer;
+        if (!viewportAttached && !streamAttached) {
+            // The streamer only copies frames it is due, so plain frames stay cheap
+            if (streamer != null) {
+                streamer.offer(input);
+            }
+            return input;
+        }
+
+        input.copyTo(annotated);
+        drawOverlay(annotated);
+
+        if (streamer != null) {
+            streamer.offer(annotated);
+        }
+        return annotated;
+    }
+
+    private void analysisLoop() {
+        while (running) {
+            if ((middle.get() & FRESH) == 0) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            front = middle.getAndSet(front) & ~FRESH;
+            analyzedSequence = ringSequence[front];
+            analyzedCaptureNanos = ringCaptureNanos[front];
+            try {
+                timedAnalyze(ring[front]);
+            } catch (RuntimeException e) {
+                // Surface the failure on the camera thread, as a synchronous pipeline would
+                workerError = e;
+                running = false;
+                return;
+            }
+            framesAnalyzed++;
+        }
+    }
+
+    private void timedAnalyze(Mat frame) {
+        long start = System.nanoTime();
+        analyze(frame);
+        long elapsed = System.nanoTime() - start;
+
+        double average = averageAnalysisNanos;
+        averageAnalysisNanos = (average == 0) ? elapsed : average + 0.1 * (elapsed - average);
+    }
+
+    /**
+     * @return {@link System#nanoTime()} at which the frame being analyzed was captured.
+     *         Only meaningful from inside {@link #analyze(Mat)}.
+     */
+    protected long getFrameCaptureNanos() {
+        return analyzedCaptureNanos;
+    }
+
+    /**
+     * Publish the result of the frame being analyzed. Call from {@link #analyze(Mat)}.
+     *
+     * @param selection 0-based index of the selected region, matching <i>scores</i>, or
+     *                  -1 for none. Every pipeline uses this convention so consumers can
+     *                  read a result without knowing which pipeline produced it.
+     * @param scores    Per-region scores; copied, so the caller may reuse the array
+     */
+    protected void publish(int selection, double[] scores) {
+        DetectionResult result = new DetectionResult(selection, scores,
+                analyzedSequence, analyzedCaptureNanos, System.nanoTime());
+
+        synchronized (resultLock) {
+            latestResult = result;
+            resultLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return Most recently published result, or null before the first one
+     */
+    public DetectionResult getLatestResult() {
+        return latestResult;
+    }
+
+    /**
+     * @return Selection of the most recent result, or -1 before the first one
+     */
+    public int getLatestSelection() {
+        DetectionResult result = latestResult;
+        return (result == null) ? -1 : result.selection;
+    }
+
+    /**
+     * Wait for a result computed from a frame captured after <i>nanoTime</i>.
+     *
+     * @param nanoTime  {@link System#nanoTime()} the frame must be newer than
+     * @param timeoutMs Maximum time to wait
+     * @return The fresh result, or the latest (possibly stale or null) result on timeout
+     */
+    public DetectionResult awaitResultAfter(long nanoTime, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+
+        synchronized (resultLock) {
+            while (latestResult == null || latestResult.captureNanos - nanoTime <= 0) {
+                long remainingMs = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remainingMs <= 0) {
+                    break;
+                }
+                resultLock.wait(remainingMs);
+            }
+            return latestResult;
+        }
+    }
+
+    /**
+     * Let a governor decide which frames are analyzed. Frames it rejects are neither
+     * copied nor analyzed; the overlay is still drawn from the last result.
+     */
+    public void setGovernor(VisionGovernor governor) {
+        this.governor = governor;
+    }
+
+    /**
+     * Record the camera frames that are analyzed, at full resolution and named by the
+     * same sequence number as their {@link DetectionResult}. Pass null to stop.
+     */
+    public void setRecorder(FrameRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * @return Moving average of the time spent in {@link #analyze(Mat)}
+     */
+    public double getAverageAnalysisNanos() {
+        return averageAnalysisNanos;
+    }
+
+    /**
+     * Tell the pipeline whether the EasyOpenCV viewport is being rendered.
+     * Pair with <i>pauseViewport()</i> / <i>resumeViewport()</i> on the camera.
+     */
+    public void setViewportAttached(boolean attached) {
+        viewportAttached = attached;
+    }
+
+    /**
+     * Stream annotated frames to FTC Dashboard through <i>streamer</i> instead of
+     * <i>startCameraStream</i>. Pass null to stop.
+     */
+    public void setStreamer(DashboardStreamer streamer) {
+        this.streamer = streamer;
+        streamAttached = streamer != null;
+    }
+
+    /**
+     * Tell the pipeline whether dashboard stream frames should carry the overlay. When
+     * false, a streamer still receives the plain camera frames.
+     */
+    public void setStreamAttached(boolean attached) {
+        streamAttached = attached;
+    }
+
+    public boolean isOverlayRendered() {
+        return viewportAttached || streamAttached;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} at which the camera delivered its first frame,
+     *         or 0 before that
+     */
+    public long getFirstFrameNanos() {
+        return firstFrameNanos;
+    }
+
+    public long getFramesCaptured() {
+        return framesCaptured;
+    }
+
+    public long getFramesAnalyzed() {
+        return framesAnalyzed;
+    }
+
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    /**
+     * Stop the analysis thread and free the frame ring. Call once streaming has stopped.
+     * Blocks until the analysis thread has finished its current frame and exited, so no
+     * native memory is freed while {@link #analyze(Mat)} may still be reading it.
+     * Subclasses must call this before releasing their own Mats.
+     */
+    public void release() {
+        running = false;
+        if (worker != null) {
+            joinUninterruptibly(worker);
+            worker = null;
+        }
+
+        for (Mat slot : ring) {
+            slot.release();
+        }
+        annotated.release();
+        pyramid.release();
+    }
+
+    /**
+     * Wait until <i>thread</i> has exited, even if interrupted; the interrupt is restored
+     * afterwards.
+     */
+    static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(100);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
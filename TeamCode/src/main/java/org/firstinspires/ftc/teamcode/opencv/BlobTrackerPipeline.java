@@ -0,0 +1,354 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import com.acmerobotics.dashboard.config.Config;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Finds game elements of one color anywhere in the frame and tracks them from frame to
+ * frame, so drive code can steer toward a piece.
+ * <p>
+ * Each frame is converted to HSV, thresholded against a {@link HueBandCounter} band, and
+ * labelled with a single <i>connectedComponentsWithStats</i> call. Blobs above
+ * <i>minArea</i> are matched to the existing tracks by nearest centroid (greedy, gated by
+ * <i>maxMatchDistance</i>); unmatched blobs start new tracks and tracks that go unseen for
+ * <i>maxMissedFrames</i> are dropped. Velocities are in pixels per second, from the
+ * capture times of the frames.
+ * <p>
+ * All buffers, including the {@link #MAX_TRACKS} tracks, are allocated up front. Read
+ * them with {@link #getTracks(Track[])}, which copies into an array the caller owns.
+ * Coordinates are in the analyzed image, so at pyramid level 1 they are half the camera
+ * resolution.
+ * <p>
+ * The published {@link DetectionResult} treats each track slot as a region: the score of
+ * slot <i>i</i> is the area of the track in <i>getTracks()</i> entry <i>i</i> (0 if
+ * inactive), and the selection is the slot of the largest track, or -1 with no tracks.
+ * Slots are reused when tracks die, so follow a piece across frames by {@link Track#id}.
+ */
+@Config
+public class BlobTrackerPipeline extends AsyncAnalysisPipeline {
+    public static int minArea = 50;
+    public static double maxMatchDistance = 40;
+    public static int maxMissedFrames = 5;
+    // Weight of the newest measurement in the velocity estimate
+    public static double velocityAlpha = 0.5;
+
+    public static final int MAX_TRACKS = 8;
+    static final int MAX_CANDIDATES = 16;
+
+    public static final class Track {
+        public int id;
+        public double x, y;
+        public double vx, vy;
+        public int left, top, width, height, area;
+        public int age;
+        public int missedFrames;
+        // Capture time of the last frame the track was matched in
+        public long lastSeenNanos;
+        public boolean active;
+
+        public void copyFrom(Track other) {
+            id = other.id;
+            x = other.x;
+            y = other.y;
+            vx = other.vx;
+            vy = other.vy;
+            left = other.left;
+            top = other.top;
+            width = other.width;
+            height = other.height;
+            area = other.area;
+            age = other.age;
+            missedFrames = other.missedFrames;
+            lastSeenNanos = other.lastSeenNanos;
+            active = other.active;
+        }
+    }
+
+    Scalar trackColor = new Scalar(255, 0, 255);
+
+    final int band;
+    final int level;
+
+    Mat hsvMat = new Mat();
+    Mat mask = new Mat();
+    Mat wrapMask = new Mat();
+    Mat labels = new Mat();
+    Mat stats = new Mat();
+    Mat centroids = new Mat();
+    final Scalar lower = new Scalar(0, 0, 0);
+    final Scalar upper = new Scalar(0, 0, 0);
+
+    int[] statsBuffer = new int[0];
+    double[] centroidBuffer = new double[0];
+
+    // Largest blobs of the current frame: x, y, left, top, width, height, area
+    final double[] candidateX = new double[MAX_CANDIDATES];
+    final double[] candidateY = new double[MAX_CANDIDATES];
+    final int[] candidateStats = new int[MAX_CANDIDATES * 5];
+    final boolean[] candidateUsed = new boolean[MAX_CANDIDATES];
+    int candidateCount;
+
+    // Owned by the analysis thread; published into <published> under the lock
+    final Track[] tracks = new Track[MAX_TRACKS];
+    final Track[] published = new Track[MAX_TRACKS];
+    final Track[] drawn = new Track[MAX_TRACKS];
+    final double[] trackAreas = new double[MAX_TRACKS];
+    int nextId = 1;
+
+    final Rect drawRect = new Rect();
+    final Point drawFrom = new Point();
+    final Point drawTo = new Point();
+
+    /**
+     * @param band  Band index from {@link HueBandCounter}, e.g. YELLOW_BAND
+     * @param level Pyramid level to analyze; 1 turns 640x480 into 320x240
+     */
+    public BlobTrackerPipeline(int band, int level, boolean async) {
+        super(async);
+        this.band = band;
+        this.level = level;
+
+        for (int i = 0; i < MAX_TRACKS; i++) {
+            tracks[i] = new Track();
+            published[i] = new Track();
+            drawn[i] = new Track();
+        }
+    }
+
+    @Override
+    protected int getAnalysisLevel() {
+        return level;
+    }
+
+    @Override
+    protected void analyze(Mat frame) {
+        threshold(frame);
+
+        int count = Imgproc.connectedComponentsWithStats(mask, labels, stats, centroids, 8, CvType.CV_32S);
+        collectCandidates(count);
+
+        associate(getFrameCaptureNanos());
+
+        int largest = -1;
+        for (int i = 0; i < MAX_TRACKS; i++) {
+            trackAreas[i] = tracks[i].active ? tracks[i].area : 0;
+            if (tracks[i].active && (largest < 0 || tracks[i].area > tracks[largest].area)) {
+                largest = i;
+            }
+        }
+
+        synchronized (published) {
+            for (int i = 0; i < MAX_TRACKS; i++) {
+                published[i].copyFrom(tracks[i]);
+            }
+        }
+        publish(largest, trackAreas);
+    }
+
+    void threshold(Mat frame) {
+        Imgproc.cvtColor(frame, hsvMat, Imgproc.COLOR_RGB2HSV);
+
+        HueBandCounter.Band limits = HueBandCounter.band(band);
+        boolean wraps = limits.hueMin > limits.hueMax;
+
+        setLimits(lower, wraps ? 0 : limits.hueMin, limits.satMin, limits.valMin);
+        setLimits(upper, limits.hueMax, limits.satMax, limits.valMax);
+        Core.inRange(hsvMat, lower, upper, mask);
+
+        if (wraps) {
+            setLimits(lower, limits.hueMin, limits.satMin, limits.valMin);
+            setLimits(upper, 179, limits.satMax, limits.valMax);
+            Core.inRange(hsvMat, lower, upper, wrapMask);
+            Core.bitwise_or(mask, wrapMask, mask);
+        }
+    }
+
+    private static void setLimits(Scalar scalar, int hue, int sat, int val) {
+        scalar.val[0] = hue;
+        scalar.val[1] = sat;
+        scalar.val[2] = val;
+    }
+
+    void collectCandidates(int count) {
+        if (statsBuffer.length < count * 5) {
+            statsBuffer = new int[count * 5];
+            centroidBuffer = new double[count * 2];
+        }
+        stats.get(0, 0, statsBuffer);
+        centroids.get(0, 0, centroidBuffer);
+
+        candidateCount = 0;
+        // Label 0 is the background
+        for (int label = 1; label < count; label++) {
+            int area = statsBuffer[label * 5 + Imgproc.CC_STAT_AREA];
+            if (area < minArea) {
+                continue;
+            }
+
+            int slot;
+            if (candidateCount < MAX_CANDIDATES) {
+                slot = candidateCount++;
+            } else {
+                // Full: replace the smallest candidate if this blob is bigger
+                slot = 0;
+                for (int c = 1; c < MAX_CANDIDATES; c++) {
+                    if (candidateStats[c * 5 + 4] < candidateStats[slot * 5 + 4]) {
+                        slot = c;
+                    }
+                }
+                if (candidateStats[slot * 5 + 4] >= area) {
+                    continue;
+                }
+            }
+
+            candidateX[slot] = centroidBuffer[label * 2];
+            candidateY[slot] = centroidBuffer[label * 2 + 1];
+            candidateStats[slot * 5] = statsBuffer[label * 5 + Imgproc.CC_STAT_LEFT];
+            candidateStats[slot * 5 + 1] = statsBuffer[label * 5 + Imgproc.CC_STAT_TOP];
+            candidateStats[slot * 5 + 2] = statsBuffer[label * 5 + Imgproc.CC_STAT_WIDTH];
+            candidateStats[slot * 5 + 3] = statsBuffer[label * 5 + Imgproc.CC_STAT_HEIGHT];
+            candidateStats[slot * 5 + 4] = area;
+        }
+    }
+
+    /**
+     * @param captureNanos Capture time of the current frame
+     */
+    void associate(long captureNanos) {
+        for (int c = 0; c < candidateCount; c++) {
+            candidateUsed[c] = false;
+        }
+
+        // Greedy nearest-centroid match for each existing track, predicted forward by its
+        // velocity from the frame it was last seen in, so missed frames are bridged
+        for (Track track : tracks) {
+            if (!track.active) {
+                continue;
+            }
+
+            double dt = (captureNanos - track.lastSeenNanos) * 1e-9;
+            double predictedX = track.x + track.vx * dt;
+            double predictedY = track.y + track.vy * dt;
+            int best = -1;
+            double bestDistance = maxMatchDistance;
+            for (int c = 0; c < candidateCount; c++) {
+                if (candidateUsed[c]) {
+                    continue;
+                }
+                double distance = Math.hypot(candidateX[c] - predictedX, candidateY[c] - predictedY);
+                if (distance <= bestDistance) {
+                    bestDistance = distance;
+                    best = c;
+                }
+            }
+
+            if (best < 0) {
+                if (++track.missedFrames > maxMissedFrames) {
+                    track.active = false;
+                }
+                continue;
+            }
+
+            candidateUsed[best] = true;
+            if (dt > 0) {
+                track.vx += velocityAlpha * ((candidateX[best] - track.x) / dt - track.vx);
+                track.vy += velocityAlpha * ((candidateY[best] - track.y) / dt - track.vy);
+            }
+            setFromCandidate(track, best, captureNanos);
+            track.age++;
+            track.missedFrames = 0;
+        }
+
+        // Unmatched blobs start new tracks while there is room
+        for (int c = 0; c < candidateCount; c++) {
+            if (candidateUsed[c]) {
+                continue;
+            }
+            for (Track track : tracks) {
+                if (!track.active) {
+                    track.active = true;
+                    track.id = nextId++;
+                    track.vx = 0;
+                    track.vy = 0;
+                    track.age = 1;
+                    track.missedFrames = 0;
+                    setFromCandidate(track, c, captureNanos);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void setFromCandidate(Track track, int c, long captureNanos) {
+        track.x = candidateX[c];
+        track.y = candidateY[c];
+        track.left = candidateStats[c * 5];
+        track.top = candidateStats[c * 5 + 1];
+        track.width = candidateStats[c * 5 + 2];
+        track.height = candidateStats[c * 5 + 3];
+        track.area = candidateStats[c * 5 + 4];
+        track.lastSeenNanos = captureNanos;
+    }
+
+    /**
+     * Copy the latest tracks into <i>out</i>, which must hold {@link #MAX_TRACKS} Track
+     * objects. Inactive entries have <i>active</i> set to false.
+     *
+     * @return Number of active tracks
+     */
+    public int getTracks(Track[] out) {
+        int active = 0;
+        synchronized (published) {
+            for (int i = 0; i < MAX_TRACKS; i++) {
+                out[i].copyFrom(published[i]);
+                if (published[i].active) {
+                    active++;
+                }
+            }
+        }
+        return active;
+    }
+
+    @Override
+    protected void drawOverlay(Mat input) {
+        getTracks(drawn);
+        double scale = 1 << level;
+
+        for (Track track : drawn) {
+            if (!track.active) {
+                continue;
+            }
+
+            drawRect.x = (int) (track.left * scale);
+            drawRect.y = (int) (track.top * scale);
+            drawRect.width = (int) (track.width * scale);
+            drawRect.height = (int) (track.height * scale);
+            Imgproc.rectangle(input, drawRect, trackColor);
+
+            // Where the piece will be in a quarter of a second
+            drawFrom.x = track.x * scale;
+            drawFrom.y = track.y * scale;
+            drawTo.x = (track.x + track.vx * 0.25) * scale;
+            drawTo.y = (track.y + track.vy * 0.25) * scale;
+            Imgproc.line(input, drawFrom, drawTo, trackColor);
+        }
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        hsvMat.release();
+        mask.release();
+        wrapMask.release();
+        labels.release();
+        stats.release();
+        centroids.release();
+    }
+}
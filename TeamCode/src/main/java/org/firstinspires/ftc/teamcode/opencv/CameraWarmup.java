@@ -0,0 +1,311 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import android.annotation.SuppressLint;
+
+import com.qualcomm.robotcore.hardware.HardwareMap;
+
+import org.firstinspires.ftc.robotcore.external.Telemetry;
+import org.firstinspires.ftc.robotcore.external.hardware.camera.WebcamName;
+import org.firstinspires.ftc.teamcode.GeneralConstants;
+import org.openftc.easyopencv.OpenCvCamera;
+import org.openftc.easyopencv.OpenCvCameraFactory;
+import org.openftc.easyopencv.OpenCvCameraRotation;
+import org.openftc.easyopencv.OpenCvWebcam;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opens every candidate camera in parallel at the start of init, so choosing one later
+ * costs nothing: by then it is streaming and its pipeline has been voting for a while.
+ * <p>
+ * Each camera gets its own pipeline and its own slice of the camera monitor view.
+ * {@link #select(String, boolean)} keeps the chosen camera and either closes the others or
+ * leaves them open but idle. Time from the open request to the first frame is kept per
+ * camera for telemetry. A camera missing from the configuration is marked unavailable
+ * instead of failing init, so the OpMode can still run on the cameras that are there.
+ * {@link #closeAll()} closes every camera and releases every pipeline; call it on every
+ * way out of the OpMode.
+ * <p>
+ * Usage:
+ * <pre>
+ *     CameraWarmup warmup = new CameraWarmup(hardwareMap);
+ *     warmup.addCamera("WebcamC270", 320, 240, new DrawRectanglePipeline(telemetry, "WebcamC270", 320, 240));
+ *     warmup.addCamera("Webcam1080", 640, 480, new DrawRectanglePipeline(telemetry, "Webcam1080", 640, 480));
+ *     warmup.openAll(renderViewport);
+ *     ...
+ *     CameraWarmup.Camera camera = warmup.select(name, true);
+ *     ...
+ *     warmup.closeAll();
+ * </pre>
+ */
+public class CameraWarmup {
+    public static final class Camera {
+        public final String name;
+        public final int width, height;
+        public final AsyncAnalysisPipeline pipeline;
+        public OpenCvWebcam webcam;
+
+        volatile long openRequestNanos = 0;
+        volatile long openedNanos = 0;
+        volatile int errorCode = 0;
+        volatile boolean closed = false;
+        // Not in the hardware configuration
+        boolean missing = false;
+        // Set when another camera was selected; <closeWhenDismissed> says how to idle it
+        boolean dismissed = false;
+        boolean closeWhenDismissed = false;
+        boolean idled = false;
+        volatile boolean streaming = false;
+
+        Camera(String name, int width, int height, AsyncAnalysisPipeline pipeline) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.pipeline = pipeline;
+        }
+
+        public boolean isAvailable() {
+            return !missing;
+        }
+
+        public boolean isStreaming() {
+            return streaming && pipeline.getFirstFrameNanos() != 0;
+        }
+
+        /**
+         * @return Time from the open request until the device was open, or -1 if not yet
+         */
+        public double getOpenMs() {
+            long opened = openedNanos;
+            return (opened == 0) ? -1 : (opened - openRequestNanos) * GeneralConstants.NANO2MS;
+        }
+
+        /**
+         * @return Time from the open request until the first frame, or -1 if not yet
+         */
+        public double getTimeToFirstFrameMs() {
+            long firstFrame = pipeline.getFirstFrameNanos();
+            return (firstFrame == 0) ? -1 : (firstFrame - openRequestNanos) * GeneralConstants.NANO2MS;
+        }
+
+        /**
+         * @return EasyOpenCV open error code, or 0
+         */
+        public int getErrorCode() {
+            return errorCode;
+        }
+    }
+
+    private final HardwareMap hardwareMap;
+    private final List<Camera> cameras = new ArrayList<>();
+    private Camera selected = null;
+
+    public CameraWarmup(HardwareMap hardwareMap) {
+        this.hardwareMap = hardwareMap;
+    }
+
+    public void addCamera(String name, int width, int height, AsyncAnalysisPipeline pipeline) {
+        cameras.add(new Camera(name, width, height, pipeline));
+    }
+
+    /**
+     * Create every camera and start opening them all at once. Returns immediately.
+     *
+     * @param renderViewport False to pause the on-robot viewports
+     */
+    public void openAll(boolean renderViewport) {
+        List<WebcamName> webcamNames = new ArrayList<>();
+        for (Camera camera : cameras) {
+            WebcamName webcamName = hardwareMap.tryGet(WebcamName.class, camera.name);
+            camera.missing = webcamName == null;
+            if (webcamName != null) {
+                webcamNames.add(webcamName);
+            }
+        }
+        if (webcamNames.isEmpty()) {
+            return;
+        }
+
+        int cameraMonitorViewId = hardwareMap.appContext
+                .getResources()
+                .getIdentifier("cameraMonitorViewId", "id", hardwareMap.appContext.getPackageName());
+        int[] viewportIds = OpenCvCameraFactory.getInstance().splitLayoutForMultipleViewports(
+                cameraMonitorViewId, webcamNames.size(), OpenCvCameraFactory.ViewportSplitMethod.VERTICALLY);
+
+        int viewport = 0;
+        for (Camera camera : cameras) {
+            if (camera.missing) {
+                continue;
+            }
+            camera.webcam = OpenCvCameraFactory
+                    .getInstance()
+                    .createWebcam(webcamNames.get(viewport), viewportIds[viewport]);
+            viewport++;
+
+            camera.webcam.setPipeline(camera.pipeline);
+            if (!renderViewport) {
+                camera.webcam.pauseViewport();
+            }
+            camera.pipeline.setViewportAttached(renderViewport);
+
+            camera.openRequestNanos = System.nanoTime();
+            camera.webcam.openCameraDeviceAsync(new OpenCvCamera.AsyncCameraOpenListener() {
+                @Override
+                public void onOpened() {
+                    synchronized (camera) {
+                        camera.openedNanos = System.nanoTime();
+                        if (camera.dismissed) {
+                            // Passed over while it was still opening
+                            idle(camera);
+                            return;
+                        }
+                        camera.webcam.startStreaming(camera.width, camera.height, OpenCvCameraRotation.UPRIGHT);
+                        camera.streaming = true;
+                    }
+                }
+
+                @Override
+                public void onError(int errorCode) {
+                    synchronized (camera) {
+                        camera.errorCode = errorCode;
+                        if (camera.dismissed && camera.closeWhenDismissed && !camera.closed) {
+                            // closeAll() was waiting for this camera to open
+                            camera.closed = true;
+                            camera.pipeline.release();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    public Camera getCamera(String name) {
+        for (Camera camera : cameras) {
+            if (camera.name.equals(name)) {
+                return camera;
+            }
+        }
+        throw new IllegalArgumentException(getClass().getSimpleName() + ": unknown camera " + name);
+    }
+
+    public List<Camera> getCameras() {
+        return cameras;
+    }
+
+    /**
+     * Keep <i>name</i> streaming and take the others out of the way.
+     *
+     * @param closeOthers True to close the other cameras and free their pipelines; false
+     *                    to only stop their streams, so they can be resumed quickly
+     * @return The selected camera
+     * @throws IllegalArgumentException If <i>name</i> is not in the hardware configuration
+     */
+    public Camera select(String name, boolean closeOthers) {
+        Camera chosen = getCamera(name);
+        if (chosen.missing) {
+            throw new IllegalArgumentException(getClass().getSimpleName() + ": camera " + name
+                    + " is not in the hardware configuration");
+        }
+        selected = chosen;
+
+        for (Camera camera : cameras) {
+            if (camera == selected || camera.missing) {
+                continue;
+            }
+
+            synchronized (camera) {
+                camera.dismissed = true;
+                camera.closeWhenDismissed = closeOthers;
+                // Cameras still opening are idled by their open listener
+                if (camera.openedNanos != 0 && camera.errorCode == 0) {
+                    idle(camera);
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Stop every camera, close it and release its pipeline, whether it was selected,
+     * left idle or is still opening. Returns once no camera is streaming any more; the
+     * devices finish closing in the background. Safe to call more than once.
+     */
+    public void closeAll() {
+        for (Camera camera : cameras) {
+            synchronized (camera) {
+                camera.dismissed = true;
+                camera.closeWhenDismissed = true;
+                if (camera.missing || camera.errorCode != 0) {
+                    // Never opened: only the pipeline's buffers to free
+                    if (!camera.closed) {
+                        camera.closed = true;
+                        camera.pipeline.release();
+                    }
+                } else if (camera.openedNanos != 0) {
+                    close(camera);
+                }
+                // Cameras still opening are closed by their open listener
+            }
+        }
+    }
+
+    // Caller holds the camera's lock
+    private static void idle(Camera camera) {
+        if (camera.closeWhenDismissed) {
+            close(camera);
+            return;
+        }
+        if (camera.idled) {
+            return;
+        }
+        camera.idled = true;
+
+        if (camera.streaming) {
+            camera.webcam.stopStreaming();
+        }
+        camera.streaming = false;
+    }
+
+    // Caller holds the camera's lock
+    private static void close(Camera camera) {
+        if (camera.closed) {
+            return;
+        }
+        camera.closed = true;
+        camera.idled = true;
+
+        // Stop the frame callbacks now, so the caller can free what the pipeline feeds
+        if (camera.streaming) {
+            camera.webcam.stopStreaming();
+        }
+        camera.streaming = false;
+        camera.webcam.closeCameraDeviceAsync(camera.pipeline::release);
+    }
+
+    public Camera getSelected() {
+        return selected;
+    }
+
+    @SuppressLint("DefaultLocale")
+    public void addTelemetry(Telemetry telemetry) {
+        for (Camera camera : cameras) {
+            String state;
+            if (camera.missing) {
+                state = "not configured, unavailable";
+            } else if (camera.errorCode != 0) {
+                state = "error " + camera.errorCode;
+            } else if (camera.closed) {
+                state = "closed";
+            } else if (camera.getTimeToFirstFrameMs() >= 0) {
+                state = String.format("first frame %.0f ms (open %.0f ms)",
+                        camera.getTimeToFirstFrameMs(), camera.getOpenMs());
+            } else if (camera.openedNanos != 0) {
+                state = String.format("open %.0f ms, waiting for frames", camera.getOpenMs());
+            } else {
+                state = "opening";
+            }
+            telemetry.addData(camera.name, state);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+/**
+ * Per-pixel color conversions that match OpenCV's 8-bit results, for code that reads
+ * pixels into Java arrays instead of converting whole Mats.
+ * <p>
+ * Hue uses OpenCV's 8-bit range of 0..179 (degrees / 2); saturation and value are 0..255.
+ */
+public final class ColorMath {
+    private static final int HSV_SHIFT = 12;
+    private static final int ROUND = 1 << (HSV_SHIFT - 1);
+    private static final int[] SDIV_TABLE = new int[256];
+    private static final int[] HDIV_TABLE = new int[256];
+
+    static {
+        for (int i = 1; i < 256; i++) {
+            SDIV_TABLE[i] = (int) Math.round((255 << HSV_SHIFT) / (double) i);
+            HDIV_TABLE[i] = (int) Math.round((180 << HSV_SHIFT) / (6.0 * i));
+        }
+    }
+
+    private ColorMath() {
+    }
+
+    public static int saturation(int r, int g, int b) {
+        int max = Math.max(r, Math.max(g, b));
+        int min = Math.min(r, Math.min(g, b));
+        return ((max - min) * SDIV_TABLE[max] + ROUND) >> HSV_SHIFT;
+    }
+
+    public static int value(int r, int g, int b) {
+        return Math.max(r, Math.max(g, b));
+    }
+
+    public static int hue(int r, int g, int b) {
+        int max = Math.max(r, Math.max(g, b));
+        int diff = max - Math.min(r, Math.min(g, b));
+
+        int h;
+        if (max == r) {
+            h = g - b;
+        } else if (max == g) {
+            h = b - r + 2 * diff;
+        } else {
+            h = r - g + 4 * diff;
+        }
+
+        h = (h * HDIV_TABLE[diff] + ROUND) >> HSV_SHIFT;
+        return h < 0 ? h + 180 : h;
+    }
+
+    /**
+     * Convert an 8-bit sRGB color to CIE L*a*b* (D65), with L in 0..100.
+     *
+     * @param lab Output array of length 3
+     */
+    public static void rgbToLab(double r, double g, double b, double[] lab) {
+        double rl = linearize(r / 255), gl = linearize(g / 255), bl = linearize(b / 255);
+
+        double x = (0.412453 * rl + 0.357580 * gl + 0.180423 * bl) / 0.950456;
+        double y = 0.212671 * rl + 0.715160 * gl + 0.072169 * bl;
+        double z = (0.019334 * rl + 0.119193 * gl + 0.950227 * bl) / 1.088754;
+
+        double fx = labF(x), fy = labF(y), fz = labF(z);
+        lab[0] = 116 * fy - 16;
+        lab[1] = 500 * (fx - fy);
+        lab[2] = 200 * (fy - fz);
+    }
+
+    private static double linearize(double c) {
+        return c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+    }
+
+    private static double labF(double t) {
+        return t > 0.008856 ? Math.cbrt(t) : 7.787 * t + 16.0 / 116;
+    }
+}
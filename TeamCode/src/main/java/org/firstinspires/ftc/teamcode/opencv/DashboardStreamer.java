@@ -0,0 +1,265 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import android.annotation.SuppressLint;
+import android.graphics.Bitmap;
+
+import com.acmerobotics.dashboard.FtcDashboard;
+import com.acmerobotics.dashboard.config.Config;
+
+import org.firstinspires.ftc.robotcore.external.Telemetry;
+import org.firstinspires.ftc.teamcode.GeneralConstants;
+import org.opencv.android.Utils;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams pipeline frames to FTC Dashboard within a bandwidth budget, replacing
+ * <i>startCameraStream</i>.
+ * <p>
+ * The camera thread only copies a frame into a single shared slot, and only when the
+ * stream is due a frame and the slot is free. A low-priority thread downsamples the
+ * slot, converts it to a Bitmap and sends it with <i>sendImage</i>. Every
+ * <i>measureInterval</i> frames it also JPEG-encodes the small frame itself to learn
+ * the bytes per frame at the current quality; from that it lowers the JPEG quality,
+ * then the frame rate, to stay under <i>bytesPerSecond</i>, and raises them again when
+ * there is headroom.
+ * <p>
+ * Attach with {@link AsyncAnalysisPipeline#setStreamer(DashboardStreamer)}, or through
+ * {@link VisionGovernor#setStreamer(DashboardStreamer)} so the rate follows the governor.
+ */
+@Config
+public class DashboardStreamer {
+    public static class Params {
+        public int bytesPerSecond = 150_000;
+        // Width the frame is downsampled to; height keeps the aspect ratio
+        public int streamWidth = 320;
+        public int minFps = 2;
+        public int minQuality = 15;
+        public int maxQuality = 60;
+        // Re-measure the encoded frame size every this many frames
+        public int measureInterval = 10;
+    }
+
+    public static Params PARAMS = new Params();
+
+    private static final int IDLE = 0;
+    private static final int FILLING = 1;
+    private static final int READY = 2;
+    private static final int ENCODING = 3;
+
+    private final Mat slot = new Mat();
+    private final AtomicInteger slotState = new AtomicInteger(IDLE);
+
+    private final Thread encoder;
+    private volatile boolean running = true;
+
+    // Upper bound set by the caller (or governor); the budget may lower the actual rate
+    private volatile int maxFps = 15;
+    private volatile int fps;
+    private volatile int quality;
+    private long lastOfferNanos = 0;
+
+    // Only touched by the encoder thread
+    private final Mat small = new Mat();
+    private final Size smallSize = new Size();
+    private final MatOfByte encoded = new MatOfByte();
+    private final MatOfInt encodeParams = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, 0);
+    private final int[] encodeParamValues = {Imgcodecs.IMWRITE_JPEG_QUALITY, 0};
+    private Bitmap bitmap = null;
+    private int framesSinceMeasure = Integer.MAX_VALUE;
+    private double bytesPerFrame = 0;
+    private final long startNanos = System.nanoTime();
+
+    private volatile long framesSent = 0;
+    private volatile long framesSkipped = 0;
+    private volatile double bytesSent = 0;
+    private volatile double encoderNanos = 0;
+    private volatile double averageEncodeNanos = 0;
+
+    public DashboardStreamer() {
+        fps = maxFps;
+        quality = PARAMS.maxQuality;
+
+        encoder = new Thread(this::encodeLoop, getClass().getSimpleName());
+        encoder.setDaemon(true);
+        encoder.setPriority(Thread.MIN_PRIORITY);
+        encoder.start();
+    }
+
+    /**
+     * Highest frame rate to stream; 0 pauses the stream.
+     */
+    public void setMaxFps(int maxFps) {
+        this.maxFps = maxFps;
+        fps = Math.min(Math.max(fps, Math.min(PARAMS.minFps, maxFps)), maxFps);
+    }
+
+    /**
+     * Called by the pipeline with each rendered frame. Copies the frame only if the
+     * stream is due one and the encoder is not busy with the slot. Never blocks.
+     */
+    public void offer(Mat frame) {
+        int currentFps = fps;
+        if (currentFps <= 0 || !running) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (now - lastOfferNanos < 1_000_000_000L / currentFps) {
+            return;
+        }
+        if (!slotState.compareAndSet(IDLE, FILLING)) {
+            framesSkipped++;
+            return;
+        }
+
+        frame.copyTo(slot);
+        slotState.set(READY);
+        lastOfferNanos = now;
+        LockSupport.unpark(encoder);
+    }
+
+    private void encodeLoop() {
+        while (running) {
+            if (!slotState.compareAndSet(READY, ENCODING)) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            long start = System.nanoTime();
+            downsample();
+            // The slot is free again as soon as the small copy exists
+            slotState.set(IDLE);
+
+            if (framesSinceMeasure >= PARAMS.measureInterval) {
+                measure();
+                framesSinceMeasure = 0;
+            }
+            framesSinceMeasure++;
+
+            Utils.matToBitmap(small, bitmap);
+            FtcDashboard dashboard = FtcDashboard.getInstance();
+            dashboard.setImageQuality(quality);
+            dashboard.sendImage(bitmap);
+
+            long elapsed = System.nanoTime() - start;
+            framesSent++;
+            bytesSent += bytesPerFrame;
+            encoderNanos += elapsed;
+            double average = averageEncodeNanos;
+            averageEncodeNanos = (average == 0) ? elapsed : average + 0.1 * (elapsed - average);
+
+            adapt();
+        }
+    }
+
+    private void downsample() {
+        int width = Math.min(PARAMS.streamWidth, slot.cols());
+        smallSize.width = width;
+        smallSize.height = Math.round((double) slot.rows() * width / slot.cols());
+        Imgproc.resize(slot, small, smallSize, 0, 0, Imgproc.INTER_AREA);
+
+        if (bitmap == null || bitmap.getWidth() != small.cols() || bitmap.getHeight() != small.rows()) {
+            bitmap = Bitmap.createBitmap(small.cols(), small.rows(), Bitmap.Config.ARGB_8888);
+        }
+    }
+
+    private void measure() {
+        encodeParamValues[1] = quality;
+        encodeParams.put(0, 0, encodeParamValues);
+        Imgcodecs.imencode(".jpg", small, encoded, encodeParams);
+        bytesPerFrame = encoded.total();
+    }
+
+    /**
+     * Fit quality x fps into the budget: quality gives way first, frame rate after.
+     */
+    private void adapt() {
+        int budget = PARAMS.bytesPerSecond;
+        int currentFps = fps;
+        int currentQuality = quality;
+        double rate = bytesPerFrame * currentFps;
+
+        if (rate > budget) {
+            if (currentQuality > PARAMS.minQuality) {
+                quality = Math.max(PARAMS.minQuality, currentQuality - 5);
+                framesSinceMeasure = Integer.MAX_VALUE;
+            } else if (currentFps > PARAMS.minFps) {
+                fps = Math.max(PARAMS.minFps, (int) (budget / bytesPerFrame));
+            }
+        } else if (rate < 0.7 * budget) {
+            if (currentFps < maxFps) {
+                fps = currentFps + 1;
+            } else if (currentQuality < PARAMS.maxQuality) {
+                quality = Math.min(PARAMS.maxQuality, currentQuality + 5);
+                framesSinceMeasure = Integer.MAX_VALUE;
+            }
+        }
+    }
+
+    public int getFps() {
+        return fps;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    /**
+     * @return Estimated bytes sent so far (measured frame size x frames)
+     */
+    public double getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return Share of one core spent on the encoder thread since it started
+     */
+    public double getEncoderCpuFraction() {
+        return encoderNanos / (System.nanoTime() - startNanos);
+    }
+
+    @SuppressLint("DefaultLocale")
+    public void addTelemetry(Telemetry telemetry) {
+        double seconds = (System.nanoTime() - startNanos) * 1e-9;
+        telemetry.addData("Stream", String.format("%d fps, quality %d, %.1f kB/frame",
+                fps, quality, bytesPerFrame / 1000));
+        telemetry.addData("Stream sent", String.format("%d frames, %.0f kB (%.1f kB/s), %d skipped",
+                framesSent, bytesSent / 1000, bytesSent / 1000 / seconds, framesSkipped));
+        telemetry.addData("Stream encoder", String.format("%.2f ms/frame, %.1f%% CPU",
+                averageEncodeNanos * GeneralConstants.NANO2MS, 100 * getEncoderCpuFraction()));
+    }
+
+    /**
+     * Stop the encoder thread and free its buffers. Detach from the pipeline first.
+     * Blocks until the encoder thread has exited, so nothing is freed mid-encode.
+     */
+    public void release() {
+        running = false;
+        AsyncAnalysisPipeline.joinUninterruptibly(encoder);
+
+        // A camera thread that offered just before detaching may still be copying in
+        while (slotState.get() == FILLING) {
+            Thread.yield();
+        }
+
+        slot.release();
+        small.release();
+        encoded.release();
+        encodeParams.release();
+        if (bitmap != null) {
+            bitmap.recycle();
+        }
+    }
+}
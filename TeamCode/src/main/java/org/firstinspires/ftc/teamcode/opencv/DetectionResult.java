@@ -0,0 +1,46 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+/**
+ * Immutable snapshot of one analyzed frame, published by {@link AsyncAnalysisPipeline}
+ * so OpModes can read a consistent result from any thread.
+ * <p>
+ * All times are {@link System#nanoTime()} values.
+ */
+public final class DetectionResult {
+    // 0-based index of the selected region, matching the score indices, or -1 for none
+    public final int selection;
+    public final long frameSequence;
+    public final long captureNanos;
+    public final long publishNanos;
+    private final double[] scores;
+
+    public DetectionResult(int selection, double[] scores, long frameSequence, long captureNanos, long publishNanos) {
+        this.selection = selection;
+        this.scores = scores.clone();
+        this.frameSequence = frameSequence;
+        this.captureNanos = captureNanos;
+        this.publishNanos = publishNanos;
+    }
+
+    public int getScoreCount() {
+        return scores.length;
+    }
+
+    public double getScore(int index) {
+        return scores[index];
+    }
+
+    /**
+     * @return Time from frame capture until the result was published
+     */
+    public long getLatencyNanos() {
+        return publishNanos - captureNanos;
+    }
+
+    /**
+     * @return Age of the frame this result was computed from
+     */
+    public long getAgeNanos() {
+        return System.nanoTime() - captureNanos;
+    }
+}
@@ -1,56 +1,218 @@
 package org.firstinspires.ftc.teamcode.opencv;
 
+import com.acmerobotics.dashboard.config.Config;
+
 import org.firstinspires.ftc.robotcore.external.Telemetry;
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 import org.opencv.imgproc.Imgproc;
-import org.openftc.easyopencv.OpenCvPipeline;
 
-public class DrawRectanglePipeline extends OpenCvPipeline {
-    static class Params {
-        int rect1X, rect1Y, rect1W, rect1H;
-        int rect2X, rect2Y, rect2W, rect2H;
-        int rect3X, rect3Y, rect3W, rect3H;
-    }
+@Config
+public class DrawRectanglePipeline extends AsyncAnalysisPipeline {
+    // Convert only the bounding union of the rectangles instead of the whole frame
+    public static boolean roiOnlyConversion = true;
+    // Compute saturation straight from RGB, skipping the HSV conversion altogether
+    public static boolean directSaturation = true;
+    // Analyze on a background thread; read when the pipeline is constructed
+    public static boolean asyncAnalysis = false;
+    // Temporal vote over recent frames; read when the pipeline is constructed
+    public static double voteAlpha = 0.3;
+    public static int voteHistory = 15;
+    // Pyramid level to analyze (0 = full resolution); read when the pipeline is constructed
+    public static int analysisLevel = 0;
 
-    Params PARAMS = new Params();
+    static final int STAGE_CONVERT = 0;
+    static final int STAGE_MEAN1 = 1;
+    static final int STAGE_MEAN2 = 2;
+    static final int STAGE_MEAN3 = 3;
+    static final int STAGE_DRAW = 4;
 
     Scalar nonSelectedColor = new Scalar(0, 255, 0);
     Scalar selectedColor = new Scalar(0, 0, 255);
+    // Drawn on the full-resolution frame
     Rect rect1, rect2, rect3;
-    public int selectedRect = -1;
+    // Analyzed at the pyramid level
+    final int level;
+    Rect analysisRect1, analysisRect2, analysisRect3;
+    public volatile int selectedRect = -1;
+    double[] scores = new double[3];
+    public final SelectionVoter voter = new SelectionVoter(3, voteHistory, voteAlpha);
+    // cvtColor only runs with directSaturation off; the timer shows it idle otherwise
+    public final StageTimer stageTimer = new StageTimer("cvtColor", "mean1", "mean2", "mean3", "draw");
     int frame = 0;
     Telemetry telemetry;
 
     Mat hsvMat = new Mat();
+    SubmatCache hsvRect1, hsvRect2, hsvRect3;
+
+    // Reused by getAvgSaturation so scoring does not allocate per frame
+    byte[] roiPixels;
+
+    // Direct saturation: each rectangle is read straight from the frame
+    SaturationScorer saturationScorer = new SaturationScorer();
+    SubmatCache inputRect1, inputRect2, inputRect3;
+
+    // ROI-only conversion: the union is converted into roiHsvMat and each
+    // rectangle is read through a submat created once in the constructor
+    Rect roiUnion;
+    SubmatCache inputRoi;
+    Mat roiHsvMat = new Mat();
+    Mat roiHsv1, roiHsv2, roiHsv3;
+
+    /**
+     * Default camera's ROI layout at the resolution it was measured at, without telemetry;
+     * for building the pipeline by class name, e.g. in {@link ReplayHarness#main(String[])}.
+     */
+    public DrawRectanglePipeline() {
+        this(RoiLayout.cameraNames[RoiLayout.DEFAULT_PROFILE]);
+    }
+
+    /**
+     * The camera's ROI layout at the resolution it was measured at, without telemetry.
+     */
+    public DrawRectanglePipeline(String cameraName) {
+        this(null, cameraName);
+    }
 
+    /**
+     * Use the camera's ROI layout at the resolution it was measured at.
+     */
     public DrawRectanglePipeline( Telemetry _telemetry, String cameraName) {
+        this(_telemetry, cameraName,
+                RoiLayout.forCamera(cameraName).measuredWidth,
+                RoiLayout.forCamera(cameraName).measuredHeight);
+    }
+
+    /**
+     * Use the camera's ROI layout scaled to the streaming resolution.
+     */
+    public DrawRectanglePipeline( Telemetry _telemetry, String cameraName, int frameWidth, int frameHeight) {
+        super(asyncAnalysis);
         this.telemetry = _telemetry;
 
-        setParams(cameraName);
+        RoiLayout layout = RoiLayout.forCamera(cameraName);
+        rect1 = layout.scale(0, frameWidth, frameHeight);
+        rect2 = layout.scale(1, frameWidth, frameHeight);
+        rect3 = layout.scale(2, frameWidth, frameHeight);
+
+        level = Math.max(0, Math.min(ImagePyramid.MAX_LEVEL, analysisLevel));
+        int levelWidth = ImagePyramid.levelSize(frameWidth, level);
+        int levelHeight = ImagePyramid.levelSize(frameHeight, level);
+        analysisRect1 = layout.scale(0, levelWidth, levelHeight);
+        analysisRect2 = layout.scale(1, levelWidth, levelHeight);
+        analysisRect3 = layout.scale(2, levelWidth, levelHeight);
 
-        rect1 = new Rect(PARAMS.rect1X, PARAMS.rect1Y, PARAMS.rect1W, PARAMS.rect1H);
-        rect2 = new Rect(PARAMS.rect2X, PARAMS.rect2Y, PARAMS.rect2W, PARAMS.rect2H);
-        rect3 = new Rect(PARAMS.rect3X, PARAMS.rect3Y, PARAMS.rect3W, PARAMS.rect3H);
+        hsvRect1 = new SubmatCache(analysisRect1, 1);
+        hsvRect2 = new SubmatCache(analysisRect2, 1);
+        hsvRect3 = new SubmatCache(analysisRect3, 1);
+
+        inputRect1 = new SubmatCache(analysisRect1, RING_SIZE + 1);
+        inputRect2 = new SubmatCache(analysisRect2, RING_SIZE + 1);
+        inputRect3 = new SubmatCache(analysisRect3, RING_SIZE + 1);
+
+        roiUnion = union(analysisRect1, analysisRect2, analysisRect3);
+        // One view per ring slot plus the camera frame itself
+        inputRoi = new SubmatCache(roiUnion, RING_SIZE + 1);
+        roiHsvMat.create(roiUnion.height, roiUnion.width, CvType.CV_8UC3);
+        roiHsv1 = roiHsvMat.submat(relativeTo(analysisRect1, roiUnion));
+        roiHsv2 = roiHsvMat.submat(relativeTo(analysisRect2, roiUnion));
+        roiHsv3 = roiHsvMat.submat(relativeTo(analysisRect3, roiUnion));
+
+        double largest = Math.max(analysisRect1.area(), Math.max(analysisRect2.area(), analysisRect3.area()));
+        roiPixels = new byte[(int) largest * 3];
+    }
+
+    @Override
+    protected int getAnalysisLevel() {
+        return level;
     }
 
     @Override
-    public Mat processFrame(Mat input) {   // This method is called repeatedly
+    protected void analyze(Mat frame) {   // This method is called repeatedly
 //        telemetry.addData("Processing Frame", frame++);
 //        telemetry.update();
-        selectedRect = findRectangle(input);
+        selectedRect = findRectangle(frame);
+        // Vote first: a thread woken by publish() may read the voter straight away
+        voter.update(scores);
+        publish(selectedRect < 1 ? -1 : selectedRect - 1, scores);
+    }
+
+    /**
+     * Rectangle number (1..3) for a published 0-based {@link DetectionResult#selection}.
+     *
+     * @return The rectangle number, or -1 for no selection
+     */
+    public static int rectNumber(int selection) {
+        return selection < 0 ? -1 : selection + 1;
+    }
+
+    /**
+     * @return Rectangle (1..3) chosen by the temporal vote, or -1 before the first frame
+     */
+    public int getVotedRect() {
+        return rectNumber(voter.getSelection());
+    }
+
+    @Override
+    protected void drawOverlay(Mat input) {
+        stageTimer.start(STAGE_DRAW);
         drawRectangles( input );
-        return input;
+        stageTimer.stop(STAGE_DRAW);
     }
 
     int findRectangle(Mat input) {
-        Imgproc.cvtColor(input, hsvMat, Imgproc.COLOR_RGB2HSV);
+        double satRect1, satRect2, satRect3;
+
+        if (directSaturation) {
+            stageTimer.start(STAGE_MEAN1);
+            satRect1 = saturationScorer.meanSaturation(inputRect1.of(input));
+            stageTimer.stop(STAGE_MEAN1);
+
+            stageTimer.start(STAGE_MEAN2);
+            satRect2 = saturationScorer.meanSaturation(inputRect2.of(input));
+            stageTimer.stop(STAGE_MEAN2);
+
+            stageTimer.start(STAGE_MEAN3);
+            satRect3 = saturationScorer.meanSaturation(inputRect3.of(input));
+            stageTimer.stop(STAGE_MEAN3);
+        } else {
+            Mat roi1, roi2, roi3;
 
-        double satRect1 = getAvgSaturation(hsvMat, rect1);
-        double satRect2 = getAvgSaturation(hsvMat, rect2);
-        double satRect3 = getAvgSaturation(hsvMat, rect3);
+            stageTimer.start(STAGE_CONVERT);
+            if (roiOnlyConversion) {
+                Imgproc.cvtColor(inputRoi.of(input), roiHsvMat, Imgproc.COLOR_RGB2HSV);
+
+                roi1 = roiHsv1;
+                roi2 = roiHsv2;
+                roi3 = roiHsv3;
+            } else {
+                Imgproc.cvtColor(input, hsvMat, Imgproc.COLOR_RGB2HSV);
+
+                roi1 = hsvRect1.of(hsvMat);
+                roi2 = hsvRect2.of(hsvMat);
+                roi3 = hsvRect3.of(hsvMat);
+            }
+            stageTimer.stop(STAGE_CONVERT);
+
+            stageTimer.start(STAGE_MEAN1);
+            satRect1 = getAvgSaturation(roi1);
+            stageTimer.stop(STAGE_MEAN1);
+
+            stageTimer.start(STAGE_MEAN2);
+            satRect2 = getAvgSaturation(roi2);
+            stageTimer.stop(STAGE_MEAN2);
+
+            stageTimer.start(STAGE_MEAN3);
+            satRect3 = getAvgSaturation(roi3);
+            stageTimer.stop(STAGE_MEAN3);
+        }
+
+        scores[0] = satRect1;
+        scores[1] = satRect2;
+        scores[2] = satRect3;
 
         if ((satRect1>satRect2) && (satRect1>satRect3)) {
             return 1;
@@ -61,12 +223,35 @@ public class DrawRectanglePipeline extends OpenCvPipeline {
         return 3;
     }
 
+    /**
+     * Reference implementation using a temporary submat and <i>Core.mean</i>.
+     * Allocates on every call; kept for comparison in {@link VisionBenchmark}.
+     */
     protected double getAvgSaturation(Mat input, Rect rect) {
         Mat submat = input.submat(rect);
         Scalar color = Core.mean(submat);
+        submat.release();
         return color.val[1];
     }
 
+    /**
+     * Average saturation of an 8-bit HSV region, read with one bulk copy into
+     * a reused buffer instead of <i>Core.mean</i> (which returns a new Scalar).
+     */
+    protected double getAvgSaturation(Mat hsvRoi) {
+        int length = (int) hsvRoi.total() * 3;
+        if (roiPixels.length < length) {
+            roiPixels = new byte[length];
+        }
+
+        int copied = hsvRoi.get(0, 0, roiPixels);
+        long sum = 0;
+        for (int i = 1; i < copied; i += 3) {
+            sum += roiPixels[i] & 0xFF;
+        }
+        return copied == 0 ? 0 : (double) sum / (copied / 3);
+    }
+
     public void drawRectangles(Mat input) {
         Imgproc.rectangle(input, rect1, nonSelectedColor);
         Imgproc.rectangle(input, rect2, nonSelectedColor);
@@ -85,37 +270,40 @@ public class DrawRectanglePipeline extends OpenCvPipeline {
         }
     }
 
-    private void setParams(String _cameraName) {
-        if (_cameraName.equals("WebcamC270")) {
-            PARAMS.rect1X = 50;
-            PARAMS.rect1Y = 42;
-            PARAMS.rect1W = 40;
-            PARAMS.rect1H = 40;
+    /**
+     * Free the native memory held by this pipeline. Call once streaming has stopped.
+     */
+    @Override
+    public void release() {
+        super.release();
+        hsvRect1.release();
+        hsvRect2.release();
+        hsvRect3.release();
+        inputRoi.release();
+        inputRect1.release();
+        inputRect2.release();
+        inputRect3.release();
+        roiHsv1.release();
+        roiHsv2.release();
+        roiHsv3.release();
+        roiHsvMat.release();
+        hsvMat.release();
+    }
 
-            PARAMS.rect2X = 125;
-            PARAMS.rect2Y = 42;
-            PARAMS.rect2W = 40;
-            PARAMS.rect2H = 40;
+    static Rect union(Rect... rects) {
+        int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE;
+        int x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
 
-            PARAMS.rect3X = 200;
-            PARAMS.rect3Y = 42;
-            PARAMS.rect3W = 40;
-            PARAMS.rect3H = 40;
-        } else {
-            PARAMS.rect1X = 275; // 300
-            PARAMS.rect1Y = 45;
-            PARAMS.rect1W = 50;
-            PARAMS.rect1H = 50;
-
-            PARAMS.rect2X = 360;  //400
-            PARAMS.rect2Y = 45;
-            PARAMS.rect2W = 50;
-            PARAMS.rect2H = 50;
-
-            PARAMS.rect3X = 445; // 500
-            PARAMS.rect3Y = 45;
-            PARAMS.rect3W = 50;
-            PARAMS.rect3H = 50;
+        for (Rect rect : rects) {
+            x0 = Math.min(x0, rect.x);
+            y0 = Math.min(y0, rect.y);
+            x1 = Math.max(x1, rect.x + rect.width);
+            y1 = Math.max(y1, rect.y + rect.height);
         }
+        return new Rect(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    static Rect relativeTo(Rect rect, Rect origin) {
+        return new Rect(rect.x - origin.x, rect.y - origin.y, rect.width, rect.height);
     }
-}
\ No newline at end of file
+}
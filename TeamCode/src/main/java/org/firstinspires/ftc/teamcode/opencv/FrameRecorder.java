@@ -0,0 +1,332 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import android.annotation.SuppressLint;
+
+import org.firstinspires.ftc.robotcore.external.Telemetry;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records camera frames for match review and {@link ReplayHarness} regression data
+ * without slowing the camera thread.
+ * <p>
+ * {@link #offer(Mat, long)} copies a frame into one of a fixed pool of Mats and hands
+ * it to a low-priority writer thread. If every pooled Mat is still waiting to be
+ * written the frame is dropped and counted; the camera thread never blocks on storage.
+ * <p>
+ * Frames are written either as JPEG files named by frame sequence (matching
+ * {@link DetectionResult#frameSequence}) or appended to a memory-mapped raw dump in the
+ * format {@link ReplayHarness} reads. {@link #newRunDestination(File, Format)} gives each
+ * run its own folder or dump, since sequence numbers restart every run. Recording stops
+ * once <i>maxBytes</i> have been written.
+ * <p>
+ * Usage:
+ * <pre>
+ *     File root = new File("/sdcard/FIRST/vision-frames/auto");
+ *     FrameRecorder recorder = new FrameRecorder(FrameRecorder.newRunDestination(root, FrameRecorder.Format.JPEG),
+ *             FrameRecorder.Format.JPEG, 4, 5, 200_000_000L);
+ *     pipeline.setRecorder(recorder);
+ *     ...
+ *     webcam.stopStreaming();
+ *     recorder.close();
+ * </pre>
+ */
+public class FrameRecorder {
+    public enum Format {
+        JPEG,
+        RAW
+    }
+
+    // Raw dumps are mapped this much at a time as the file grows
+    static final long MAP_CHUNK_BYTES = 32L << 20;
+
+    private static final class Slot {
+        final Mat frame = new Mat();
+        long sequence;
+    }
+
+    private final File destination;
+    private final Format format;
+    private final ArrayBlockingQueue<Slot> free;
+    private final ArrayBlockingQueue<Slot> pending;
+    private volatile int sampleInterval;
+    private final long maxBytes;
+    private volatile boolean limitReached = false;
+
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile IOException writeError = null;
+
+    private volatile long framesWritten = 0;
+    private volatile long framesDropped = 0;
+    private volatile long bytesWritten = 0;
+
+    // Only touched by the writer thread
+    private final Mat bgr = new Mat();
+    private byte[] pixels = new byte[0];
+    private RandomAccessFile rawFile;
+    private FileChannel rawChannel;
+    private MappedByteBuffer rawMap;
+    private long rawMapStart = 0;
+
+    /**
+     * @param destination    Directory for JPEG frames, or the raw dump file
+     * @param format         How frames are written
+     * @param poolSize       Frames that may wait for the writer before new ones are dropped
+     * @param sampleInterval Record one frame in this many; 1 records every frame
+     * @param maxBytes       Stop recording once this much has been written
+     */
+    public FrameRecorder(File destination, Format format, int poolSize, int sampleInterval, long maxBytes)
+            throws IOException {
+        if (poolSize < 1 || sampleInterval < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException(getClass().getSimpleName()
+                    + ": poolSize, sampleInterval and maxBytes must be at least 1");
+        }
+
+        this.destination = destination;
+        this.format = format;
+        this.sampleInterval = sampleInterval;
+        this.maxBytes = maxBytes;
+
+        if (format == Format.JPEG) {
+            if (!destination.isDirectory() && !destination.mkdirs()) {
+                throw new IOException("Cannot create " + destination);
+            }
+        } else {
+            File parent = destination.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Cannot create " + parent);
+            }
+            rawFile = new RandomAccessFile(destination, "rw");
+            rawFile.setLength(0);
+            rawChannel = rawFile.getChannel();
+        }
+
+        free = new ArrayBlockingQueue<>(poolSize);
+        pending = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            free.add(new Slot());
+        }
+
+        writer = new Thread(this::writeLoop, getClass().getSimpleName());
+        writer.setDaemon(true);
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
+
+    /**
+     * A destination under <i>root</i> named after the current time, so a run never
+     * overwrites the frames of an earlier one: a directory for JPEG frames, a
+     * <i>.raw</i> file for raw dumps.
+     */
+    public static File newRunDestination(File root, Format format) {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        String suffix = (format == Format.RAW) ? ".raw" : "";
+
+        File destination = new File(root, "run-" + stamp + suffix);
+        // The Control Hub clock may not be set, so names can repeat
+        for (int i = 2; destination.exists(); i++) {
+            destination = new File(root, "run-" + stamp + "-" + i + suffix);
+        }
+        return destination;
+    }
+
+    /**
+     * Change how often frames are recorded, e.g. every frame around the autonomous
+     * decision and a sparse sample during TeleOp.
+     */
+    public void setSampleInterval(int sampleInterval) {
+        this.sampleInterval = Math.max(1, sampleInterval);
+    }
+
+    /**
+     * Queue a copy of <i>frame</i> if <i>sequence</i> falls on the sample interval.
+     * Never blocks.
+     *
+     * @param sequence Frame sequence number, used to name the recorded frame
+     * @return True if the frame was queued
+     */
+    public boolean offer(Mat frame, long sequence) {
+        if (!running || limitReached || sequence % sampleInterval != 0) {
+            return false;
+        }
+
+        Slot slot = free.poll();
+        if (slot == null) {
+            framesDropped++;
+            return false;
+        }
+
+        frame.copyTo(slot.frame);
+        slot.sequence = sequence;
+        pending.offer(slot);
+        return true;
+    }
+
+    private void writeLoop() {
+        while (running || !pending.isEmpty()) {
+            Slot slot;
+            try {
+                slot = pending.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (slot == null) {
+                continue;
+            }
+
+            try {
+                // Frames still queued when the limit is reached are discarded
+                if (!limitReached && (format == Format.JPEG ? writeJpeg(slot) : writeRaw(slot))) {
+                    framesWritten++;
+                }
+                if (bytesWritten >= maxBytes) {
+                    limitReached = true;
+                }
+            } catch (IOException e) {
+                writeError = e;
+                running = false;
+            }
+            free.offer(slot);
+        }
+    }
+
+    private boolean writeJpeg(Slot slot) throws IOException {
+        Mat frame = slot.frame;
+        if (frame.channels() == 4) {
+            Imgproc.cvtColor(frame, bgr, Imgproc.COLOR_RGBA2BGR);
+            frame = bgr;
+        } else if (frame.channels() == 3) {
+            Imgproc.cvtColor(frame, bgr, Imgproc.COLOR_RGB2BGR);
+            frame = bgr;
+        }
+
+        // Zero-padded so the file-name order ReplayHarness uses is the capture order
+        File file = new File(destination, String.format("frame_%08d.jpg", slot.sequence));
+        if (!Imgcodecs.imwrite(file.getAbsolutePath(), frame)) {
+            throw new IOException("Cannot write " + file);
+        }
+        bytesWritten += file.length();
+        return true;
+    }
+
+    /**
+     * @return False if the frame would take the dump past <i>maxBytes</i>
+     */
+    private boolean writeRaw(Slot slot) throws IOException {
+        Mat frame = slot.frame;
+        int size = (int) (frame.total() * frame.elemSize());
+        int recordSize = 3 * Integer.BYTES + size;
+        if (bytesWritten + recordSize > maxBytes) {
+            limitReached = true;
+            return false;
+        }
+
+        if (pixels.length != size) {
+            pixels = new byte[size];
+        }
+        frame.get(0, 0, pixels);
+
+        if (rawMap == null || rawMap.remaining() < recordSize) {
+            long position = (rawMap == null) ? 0 : rawMapStart + rawMap.position();
+            rawMapStart = position;
+            rawMap = rawChannel.map(FileChannel.MapMode.READ_WRITE, position,
+                    Math.max(MAP_CHUNK_BYTES, recordSize));
+            rawMap.order(ByteOrder.BIG_ENDIAN);
+        }
+
+        rawMap.putInt(frame.rows());
+        rawMap.putInt(frame.cols());
+        rawMap.putInt(frame.type());
+        rawMap.put(pixels);
+        bytesWritten += recordSize;
+        return true;
+    }
+
+    /**
+     * Write every queued frame, stop the writer and free the pool. Call after streaming
+     * has stopped.
+     *
+     * @throws IOException The first write failure, if any
+     */
+    public void close() throws IOException {
+        // No interrupt: it would close the raw file's channel mid-write
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (rawChannel != null) {
+            if (rawMap != null) {
+                rawMap.force();
+                // Mapping grows the file a chunk at a time; cut it back to what was written
+                rawChannel.truncate(rawMapStart + rawMap.position());
+            }
+            rawFile.close();
+        }
+
+        Slot slot;
+        while ((slot = free.poll()) != null) {
+            slot.frame.release();
+        }
+        while ((slot = pending.poll()) != null) {
+            slot.frame.release();
+        }
+        bgr.release();
+
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return True once <i>maxBytes</i> have been written and recording has stopped
+     */
+    public boolean isLimitReached() {
+        return limitReached;
+    }
+
+    /**
+     * @return First write failure, or null; recording stops after a failure
+     */
+    public IOException getWriteError() {
+        return writeError;
+    }
+
+    @SuppressLint("DefaultLocale")
+    public void addTelemetry(Telemetry telemetry) {
+        telemetry.addData("Recorder", String.format("%d written, %d dropped, %.1f / %.0f MB%s",
+                framesWritten, framesDropped, bytesWritten / 1e6, maxBytes / 1e6,
+                limitReached ? ", limit reached" : ""));
+        if (writeError != null) {
+            telemetry.addData("Recorder error", writeError.getMessage());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import com.acmerobotics.dashboard.config.Config;
+
+import org.opencv.core.Mat;
+
+/**
+ * Counts the pixels that fall inside configurable hue/saturation/value bands, one
+ * bit per band in three 256-entry lookup tables.
+ * <p>
+ * Entry <i>v</i> of a channel's table has bit <i>b</i> set when value <i>v</i> is inside
+ * band <i>b</i>'s limits for that channel, so a pixel is in band <i>b</i> exactly when
+ * bit <i>b</i> survives <code>hueLut[h] &amp; satLut[s] &amp; valLut[v]</code>. That is
+ * three array reads per pixel for all bands together, instead of one <i>Core.inRange</i>
+ * pass per band.
+ * <p>
+ * The band limits are tunable from the dashboard. The tables are only rebuilt when a
+ * limit has actually changed, which is checked once per frame.
+ */
+@Config
+public class HueBandCounter {
+    public static class Band {
+        // Hue is 0..179; hueMin greater than hueMax wraps through red
+        public int hueMin, hueMax;
+        public int satMin, satMax;
+        public int valMin, valMax;
+
+        public Band(int hueMin, int hueMax, int satMin, int satMax, int valMin, int valMax) {
+            this.hueMin = hueMin;
+            this.hueMax = hueMax;
+            this.satMin = satMin;
+            this.satMax = satMax;
+            this.valMin = valMin;
+            this.valMax = valMax;
+        }
+    }
+
+    public static Band RED = new Band(170, 10, 100, 255, 60, 255);
+    public static Band BLUE = new Band(100, 130, 100, 255, 40, 255);
+    public static Band YELLOW = new Band(15, 35, 100, 255, 80, 255);
+
+    public static final int RED_BAND = 0;
+    public static final int BLUE_BAND = 1;
+    public static final int YELLOW_BAND = 2;
+    public static final int BAND_COUNT = 3;
+
+    private final byte[] hueLut = new byte[256];
+    private final byte[] satLut = new byte[256];
+    private final byte[] valLut = new byte[256];
+
+    // Limits the tables were last built from, six per band
+    private final int[] builtLimits = new int[BAND_COUNT * 6];
+    private boolean built = false;
+    private int rebuilds = 0;
+
+    private byte[] pixels = new byte[0];
+
+    /**
+     * Count the pixels of an 8-bit HSV region that fall inside each band.
+     *
+     * @param counts Output, one count per band ({@link #BAND_COUNT} long)
+     * @return Number of pixels examined
+     */
+    public int count(Mat hsvRoi, int[] counts) {
+        refreshIfChanged();
+
+        int channels = hsvRoi.channels();
+        int length = (int) hsvRoi.total() * channels;
+        if (pixels.length < length) {
+            pixels = new byte[length];
+        }
+        int copied = hsvRoi.get(0, 0, pixels);
+
+        for (int b = 0; b < BAND_COUNT; b++) {
+            counts[b] = 0;
+        }
+        for (int i = 0; i < copied; i += channels) {
+            int mask = hueLut[pixels[i] & 0xFF] & satLut[pixels[i + 1] & 0xFF] & valLut[pixels[i + 2] & 0xFF];
+            if (mask != 0) {
+                for (int b = 0; b < BAND_COUNT; b++) {
+                    counts[b] += (mask >> b) & 1;
+                }
+            }
+        }
+        return copied / channels;
+    }
+
+    /**
+     * @return Bit mask of the bands containing the given 8-bit HSV pixel
+     */
+    public int bandMask(int hue, int sat, int val) {
+        return hueLut[hue] & satLut[sat] & valLut[val];
+    }
+
+    /**
+     * Rebuild the lookup tables if any band limit changed since the last build.
+     */
+    public void refreshIfChanged() {
+        boolean changed = !built;
+
+        for (int b = 0; b < BAND_COUNT && !changed; b++) {
+            int i = b * 6;
+            Band band = band(b);
+            changed = builtLimits[i] != band.hueMin || builtLimits[i + 1] != band.hueMax
+                    || builtLimits[i + 2] != band.satMin || builtLimits[i + 3] != band.satMax
+                    || builtLimits[i + 4] != band.valMin || builtLimits[i + 5] != band.valMax;
+        }
+        if (changed) {
+            rebuild();
+        }
+    }
+
+    static Band band(int index) {
+        switch (index) {
+            case RED_BAND:
+                return RED;
+            case BLUE_BAND:
+                return BLUE;
+            default:
+                return YELLOW;
+        }
+    }
+
+    private void rebuild() {
+        for (int v = 0; v < 256; v++) {
+            int hueBits = 0, satBits = 0, valBits = 0;
+
+            for (int b = 0; b < BAND_COUNT; b++) {
+                Band band = band(b);
+                boolean inHue = (band.hueMin <= band.hueMax)
+                        ? (v >= band.hueMin && v <= band.hueMax)
+                        : ((v >= band.hueMin || v <= band.hueMax) && v < 180);
+
+                hueBits |= inHue ? 1 << b : 0;
+                satBits |= (v >= band.satMin && v <= band.satMax) ? 1 << b : 0;
+                valBits |= (v >= band.valMin && v <= band.valMax) ? 1 << b : 0;
+            }
+
+            hueLut[v] = (byte) hueBits;
+            satLut[v] = (byte) satBits;
+            valLut[v] = (byte) valBits;
+        }
+
+        for (int b = 0; b < BAND_COUNT; b++) {
+            int i = b * 6;
+            Band band = band(b);
+            builtLimits[i] = band.hueMin;
+            builtLimits[i + 1] = band.hueMax;
+            builtLimits[i + 2] = band.satMin;
+            builtLimits[i + 3] = band.satMax;
+            builtLimits[i + 4] = band.valMin;
+            builtLimits[i + 5] = band.valMax;
+        }
+        built = true;
+        rebuilds++;
+    }
+
+    /**
+     * @return Number of times the lookup tables have been built
+     */
+    public int getRebuildCount() {
+        return rebuilds;
+    }
+}
@@ -0,0 +1,61 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Reusable Gaussian image pyramid. Level 0 is the input frame; each further level is
+ * a <i>pyrDown</i> of the previous one, with half the width and height (a quarter of
+ * the pixels). The level Mats are allocated on the first frame and reused afterwards.
+ * <p>
+ * Only the levels that are asked for are built, so a pipeline analyzing level 1 pays
+ * for a single <i>pyrDown</i>.
+ */
+public class ImagePyramid {
+    public static final int MAX_LEVEL = 4;
+
+    private final Mat[] levels = new Mat[MAX_LEVEL + 1];
+
+    public ImagePyramid() {
+        for (int i = 1; i <= MAX_LEVEL; i++) {
+            levels[i] = new Mat();
+        }
+    }
+
+    /**
+     * Build the pyramid from <i>input</i> down to <i>level</i>.
+     *
+     * @return The Mat for <i>level</i>; <i>input</i> itself for level 0
+     */
+    public Mat build(Mat input, int level) {
+        levels[0] = input;
+        for (int i = 1; i <= level; i++) {
+            Imgproc.pyrDown(levels[i - 1], levels[i]);
+        }
+        return levels[level];
+    }
+
+    /**
+     * @return The Mat for <i>level</i> as of the last {@link #build(Mat, int)}
+     */
+    public Mat get(int level) {
+        return levels[level];
+    }
+
+    /**
+     * Size of one dimension at a pyramid level, matching <i>pyrDown</i>'s rounding.
+     */
+    public static int levelSize(int size, int level) {
+        for (int i = 0; i < level; i++) {
+            size = (size + 1) / 2;
+        }
+        return size;
+    }
+
+    public void release() {
+        levels[0] = null;
+        for (int i = 1; i <= MAX_LEVEL; i++) {
+            levels[i].release();
+        }
+    }
+}
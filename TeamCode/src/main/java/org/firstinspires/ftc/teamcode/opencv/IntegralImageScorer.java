@@ -0,0 +1,140 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Scores rectangular regions of a frame using a summed-area table (integral image)
+ * of a single channel. The table is built once per frame with {@link #update(Mat)};
+ * after that, the mean of any rectangle costs four array reads, so scoring dozens of
+ * candidate windows is no more expensive than scoring three.
+ * <p>
+ * Typical use with an HSV frame, scoring the saturation channel:
+ * <pre>
+ *     IntegralImageScorer scorer = new IntegralImageScorer(1);
+ *
+ *     Imgproc.cvtColor(input, hsvMat, Imgproc.COLOR_RGB2HSV);
+ *     scorer.update(hsvMat);
+ *     int best = scorer.scoreAll(candidates, scores);
+ * </pre>
+ */
+public class IntegralImageScorer {
+    public static final int SATURATION_CHANNEL = 1;
+
+    private final int channel;
+    private final Mat channelMat = new Mat();
+    private final Mat sumMat = new Mat();
+
+    // Copy of sumMat on the Java heap so queries do not cross JNI
+    private int[] sums = new int[0];
+    private int rows, cols, stride;
+
+    /**
+     * @param channel Index of the channel to build the table from (1 = saturation for HSV)
+     */
+    public IntegralImageScorer(int channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Rebuild the summed-area table for a new frame. Must be called once per frame
+     * before any of the query methods.
+     *
+     * @param image 8-bit image (single or multi channel) to build the table from
+     */
+    public void update(Mat image) {
+        if (image.channels() == 1) {
+            Imgproc.integral(image, sumMat, CvType.CV_32S);
+        } else {
+            Core.extractChannel(image, channelMat, channel);
+            Imgproc.integral(channelMat, sumMat, CvType.CV_32S);
+        }
+
+        rows = image.rows();
+        cols = image.cols();
+        stride = cols + 1;
+
+        int size = (rows + 1) * stride;
+        if (sums.length != size) {
+            sums = new int[size];
+        }
+        sumMat.get(0, 0, sums);
+    }
+
+    /**
+     * Mean channel value of the given rectangle. The rectangle is clipped to the frame;
+     * a rectangle entirely outside the frame scores 0.
+     */
+    public double mean(int x, int y, int width, int height) {
+        int x0 = Math.max(0, x);
+        int y0 = Math.max(0, y);
+        int x1 = Math.min(cols, x + width);
+        int y1 = Math.min(rows, y + height);
+
+        if (x1 <= x0 || y1 <= y0) {
+            return 0;
+        }
+
+        // A 640x480 frame of 255s sums to ~78M, well inside an int
+        int sum = sums[y1 * stride + x1] - sums[y0 * stride + x1]
+                - sums[y1 * stride + x0] + sums[y0 * stride + x0];
+        return (double) sum / ((x1 - x0) * (y1 - y0));
+    }
+
+    public double mean(Rect rect) {
+        return mean(rect.x, rect.y, rect.width, rect.height);
+    }
+
+    /**
+     * Score every candidate rectangle against the current table.
+     *
+     * @param candidates Rectangles to score
+     * @param scores     Output array, at least as long as <i>candidates</i>
+     * @return Index of the highest scoring candidate, or -1 if there are none
+     */
+    public int scoreAll(Rect[] candidates, double[] scores) {
+        int best = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+
+        for (int i = 0; i < candidates.length; i++) {
+            scores[i] = mean(candidates[i]);
+            if (scores[i] > bestScore) {
+                bestScore = scores[i];
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Build a row-major grid of sliding windows covering the given area.
+     *
+     * @param area    Region the windows must stay inside
+     * @param width   Window width in pixels
+     * @param height  Window height in pixels
+     * @param stepX   Horizontal distance between window origins
+     * @param stepY   Vertical distance between window origins
+     * @return Windows, left to right then top to bottom
+     */
+    public static Rect[] slidingWindows(Rect area, int width, int height, int stepX, int stepY) {
+        int countX = Math.max(0, (area.width - width) / stepX + 1);
+        int countY = Math.max(0, (area.height - height) / stepY + 1);
+        Rect[] windows = new Rect[countX * countY];
+
+        int i = 0;
+        for (int row = 0; row < countY; row++) {
+            for (int col = 0; col < countX; col++) {
+                windows[i++] = new Rect(area.x + col * stepX, area.y + row * stepY, width, height);
+            }
+        }
+        return windows;
+    }
+
+    public void release() {
+        channelMat.release();
+        sumMat.release();
+    }
+}
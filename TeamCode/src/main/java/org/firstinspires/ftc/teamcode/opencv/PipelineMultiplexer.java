@@ -0,0 +1,126 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import org.opencv.core.Mat;
+import org.openftc.easyopencv.OpenCvPipeline;
+
+/**
+ * Runs one of several pre-built pipelines on a single camera stream, so an OpMode can
+ * change what it looks for without <i>setPipeline</i> or a camera restart.
+ * <p>
+ * {@link #select(int)} only records the request; the switch happens at the start of the
+ * next frame, so every frame is processed entirely by one pipeline. Pipelines are
+ * constructed up front and all of them are initialized with the camera's first frame,
+ * so an {@link AsyncAnalysisPipeline}'s thread and frame ring already exist before the
+ * first switch and switching allocates nothing. Pipelines that are not selected receive
+ * no frames; an idle {@link AsyncAnalysisPipeline} keeps its analysis thread parked.
+ * <p>
+ * Usage:
+ * <pre>
+ *     PipelineMultiplexer mux = new PipelineMultiplexer(spikeMarks, blobTracker, new PipelineMultiplexer.PassThrough());
+ *     webcam.setPipeline(mux);
+ *     ...
+ *     mux.select(1);  // align on the nearest piece from the next frame on
+ * </pre>
+ */
+public class PipelineMultiplexer extends OpenCvPipeline {
+    /**
+     * Returns the camera frame untouched, for when no analysis is wanted.
+     */
+    public static class PassThrough extends OpenCvPipeline {
+        @Override
+        public Mat processFrame(Mat input) {
+            return input;
+        }
+    }
+
+    private final OpenCvPipeline[] pipelines;
+    private final long[] framesProcessed;
+
+    private volatile int requested = 0;
+    private volatile int active = 0;
+    private volatile long switches = 0;
+
+    /**
+     * @param pipelines Pipelines to choose from; the first one starts selected
+     */
+    public PipelineMultiplexer(OpenCvPipeline... pipelines) {
+        if (pipelines.length == 0) {
+            throw new IllegalArgumentException(getClass().getSimpleName() + ": no pipelines");
+        }
+
+        this.pipelines = pipelines;
+        framesProcessed = new long[pipelines.length];
+    }
+
+    /**
+     * Switch to pipeline <i>index</i> from the next frame on. Safe from any thread.
+     */
+    public void select(int index) {
+        if (index < 0 || index >= pipelines.length) {
+            throw new IllegalArgumentException(getClass().getSimpleName() + ": no pipeline " + index);
+        }
+        requested = index;
+    }
+
+    @Override
+    public void init(Mat firstFrame) {
+        for (OpenCvPipeline pipeline : pipelines) {
+            pipeline.init(firstFrame);
+        }
+    }
+
+    @Override
+    public Mat processFrame(Mat input) {
+        int index = requested;
+        if (index != active) {
+            active = index;
+            switches++;
+        }
+
+        framesProcessed[index]++;
+        return pipelines[index].processFrame(input);
+    }
+
+    @Override
+    public void onViewportTapped() {
+        pipelines[active].onViewportTapped();
+    }
+
+    /**
+     * @return Index of the pipeline that processed the most recent frame
+     */
+    public int getActiveIndex() {
+        return active;
+    }
+
+    public OpenCvPipeline getPipeline(int index) {
+        return pipelines[index];
+    }
+
+    public int getPipelineCount() {
+        return pipelines.length;
+    }
+
+    /**
+     * @return Frames processed by pipeline <i>index</i>; read from the camera thread's
+     *         counters, so only approximate from other threads
+     */
+    public long getFramesProcessed(int index) {
+        return framesProcessed[index];
+    }
+
+    public long getSwitchCount() {
+        return switches;
+    }
+
+    /**
+     * Release every {@link AsyncAnalysisPipeline} held. Call once streaming has stopped.
+     */
+    public void release() {
+        for (OpenCvPipeline pipeline : pipelines) {
+            if (pipeline instanceof AsyncAnalysisPipeline) {
+                ((AsyncAnalysisPipeline) pipeline).release();
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import android.annotation.SuppressLint;
+
+import com.acmerobotics.dashboard.FtcDashboard;
+import com.acmerobotics.dashboard.config.Config;
+import com.acmerobotics.dashboard.telemetry.MultipleTelemetry;
+import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+
+import org.firstinspires.ftc.teamcode.GeneralConstants;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replays recorded frames through {@link DrawRectanglePipeline} with no camera attached.
+ * The pipeline is built in synchronous mode so the reported latency is the analysis
+ * itself rather than the hand-off to the worker thread.
+ * <p>
+ * Copy a directory of PNG/JPEG frames (or a raw frame dump) to the Control Hub, set
+ * <i>source</i> on the dashboard, and press start.
+ */
+@Config
+@TeleOp(group = GeneralConstants.TEST_OPMODE)
+public class PipelineReplay extends LinearOpMode {
+    public static String source = "/sdcard/FIRST/vision-frames";
+    public static String cameraName = "WebcamC270";
+    public static int passes = 5;
+
+    @SuppressLint("DefaultLocale")
+    @Override
+    public void runOpMode() {
+        telemetry = new MultipleTelemetry(telemetry, FtcDashboard.getInstance().getTelemetry());
+
+        telemetry.addData("Source", source);
+        telemetry.addLine("Press start to replay");
+        telemetry.update();
+
+        waitForStart();
+
+        boolean async = DrawRectanglePipeline.asyncAnalysis;
+        DrawRectanglePipeline.asyncAnalysis = false;
+        DrawRectanglePipeline pipeline = new DrawRectanglePipeline(telemetry, cameraName);
+        DrawRectanglePipeline.asyncAnalysis = async;
+        pipeline.setViewportAttached(false);
+        try {
+            ReplayHarness.Report report = new ReplayHarness(pipeline, pipeline::getLatestSelection)
+                    .run(new File(source), passes);
+
+            telemetry.addData("Frames", report.frames);
+            telemetry.addData("Throughput", "%.1f fps", report.framesPerSecond);
+            telemetry.addData("Latency", "p50 %.2f  p95 %.2f  p99 %.2f  max %.2f ms",
+                    report.p50Nanos * GeneralConstants.NANO2MS,
+                    report.p95Nanos * GeneralConstants.NANO2MS,
+                    report.p99Nanos * GeneralConstants.NANO2MS,
+                    report.maxNanos * GeneralConstants.NANO2MS);
+            telemetry.addData("Selections (0-based)", report.selectionSequence());
+        } catch (IOException e) {
+            telemetry.addData("Replay failed", e.getMessage());
+        } finally {
+            pipeline.release();
+        }
+        telemetry.update();
+
+        while (opModeIsActive()) {
+            idle();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import com.acmerobotics.dashboard.FtcDashboard;
+import com.acmerobotics.dashboard.config.Config;
+import com.acmerobotics.dashboard.telemetry.MultipleTelemetry;
+import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+
+import org.firstinspires.ftc.robotcore.external.hardware.camera.WebcamName;
+import org.firstinspires.ftc.teamcode.GeneralConstants;
+import org.firstinspires.ftc.teamcode.gamepad.InputAutoMapper;
+import org.firstinspires.ftc.teamcode.gamepad.InputHandler;
+import org.openftc.easyopencv.OpenCvCamera;
+import org.openftc.easyopencv.OpenCvCameraFactory;
+import org.openftc.easyopencv.OpenCvCameraRotation;
+import org.openftc.easyopencv.OpenCvWebcam;
+
+/**
+ * Switches one open camera between the spike-mark selector, the blob tracker and a
+ * pass-through with gamepad 1: A, B and X respectively.
+ */
+@Config
+@TeleOp(group = GeneralConstants.TEST_OPMODE)
+public class PipelineSwitcher extends LinearOpMode {
+    public static String cameraName = "WebcamC270";
+    public static int width = 320;
+    public static int height = 240;
+
+    static final int SPIKE_MARKS = 0;
+    static final int BLOB_TRACKER = 1;
+    static final int PASS_THROUGH = 2;
+
+    @Override
+    public void runOpMode() {
+        telemetry = new MultipleTelemetry(telemetry, FtcDashboard.getInstance().getTelemetry());
+        InputHandler inputHandler = InputAutoMapper.normal.autoMap(this);
+
+        DrawRectanglePipeline spikeMarks = new DrawRectanglePipeline(telemetry, cameraName, width, height);
+        BlobTrackerPipeline blobTracker = new BlobTrackerPipeline(HueBandCounter.YELLOW_BAND, 0, true);
+        PipelineMultiplexer mux = new PipelineMultiplexer(spikeMarks, blobTracker, new PipelineMultiplexer.PassThrough());
+        BlobTrackerPipeline.Track[] tracks = new BlobTrackerPipeline.Track[BlobTrackerPipeline.MAX_TRACKS];
+        for (int i = 0; i < tracks.length; i++) {
+            tracks[i] = new BlobTrackerPipeline.Track();
+        }
+
+        int cameraMonitorViewId = hardwareMap.appContext
+                .getResources()
+                .getIdentifier("cameraMonitorViewId", "id", hardwareMap.appContext.getPackageName());
+        OpenCvWebcam webcam = OpenCvCameraFactory
+                .getInstance()
+                .createWebcam(hardwareMap.get(WebcamName.class, cameraName), cameraMonitorViewId);
+        webcam.setPipeline(mux);
+        webcam.openCameraDeviceAsync(new OpenCvCamera.AsyncCameraOpenListener() {
+            @Override
+            public void onOpened() {
+                webcam.startStreaming(width, height, OpenCvCameraRotation.UPRIGHT);
+            }
+
+            @Override
+            public void onError(int errorCode) {
+                telemetry.addData("Camera Error", errorCode);
+                telemetry.update();
+            }
+        });
+        FtcDashboard.getInstance().startCameraStream(webcam, 10);
+
+        telemetry.addLine("A: spike marks  B: blob tracker  X: pass-through");
+        telemetry.update();
+
+        waitForStart();
+
+        while (opModeIsActive()) {
+            inputHandler.loop();
+            if (inputHandler.up("D1:A")) {
+                mux.select(SPIKE_MARKS);
+            }
+            if (inputHandler.up("D1:B")) {
+                mux.select(BLOB_TRACKER);
+            }
+            if (inputHandler.up("D1:X")) {
+                mux.select(PASS_THROUGH);
+            }
+
+            telemetry.addData("Active pipeline", mux.getActiveIndex());
+            telemetry.addData("Switches", mux.getSwitchCount());
+            telemetry.addData("Voted Rectangle", spikeMarks.getVotedRect());
+            telemetry.addData("Tracks", blobTracker.getTracks(tracks));
+            for (int i = 0; i < mux.getPipelineCount(); i++) {
+                telemetry.addData("Frames " + i, mux.getFramesProcessed(i));
+            }
+            telemetry.update();
+        }
+
+        FtcDashboard.getInstance().stopCameraStream();
+        webcam.stopStreaming();
+        mux.release();
+    }
+}
@@ -0,0 +1,258 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.openftc.easyopencv.OpenCvPipeline;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntSupplier;
+
+/**
+ * Feeds recorded frames through an <i>OpenCvPipeline</i> without a camera, and reports
+ * throughput, per-frame latency and the sequence of selections.
+ * <p>
+ * The source is either a directory of PNG/JPEG images (replayed in file-name order) or
+ * a raw frame dump. Frames are decoded up front and converted to RGBA, the format
+ * EasyOpenCV delivers, so only <i>processFrame</i> is timed. Each frame is copied into
+ * a fresh working Mat first, because pipelines may draw on their input.
+ * <p>
+ * Latency is the time spent in <i>processFrame</i>, so it only measures the analysis for
+ * a synchronous pipeline. An asynchronous {@link AsyncAnalysisPipeline} returns as soon
+ * as the frame is handed to its worker; replay those in synchronous mode.
+ * <p>
+ * The harness itself only needs the OpenCV Java bindings and EasyOpenCV's
+ * <i>OpenCvPipeline</i> (the classes.jar inside the EasyOpenCV AAR), so it also runs on a
+ * desktop JVM through {@link #main(String[])}, with no camera. The pipeline being
+ * replayed brings its own dependencies. For {@link DrawRectanglePipeline} and the other
+ * {@link AsyncAnalysisPipeline}s the desktop classpath also needs TeamCode's compiled
+ * classes and the classes.jar of each AAR they reference: FTC RobotCore (Telemetry,
+ * CameraStreamSource), FTC Dashboard and its core jar (@Config, the stream),
+ * Road Runner ftc and core (<i>DownsampledWriter</i> in {@link StageTimer}), plus the
+ * Android SDK's android.jar for the Android types they mention. On the robot,
+ * {@link PipelineReplay} does the same with no setup.
+ * <p>
+ * Raw dump format, repeated per frame (big-endian, as written by {@code DataOutputStream}):
+ * <pre>
+ *     int rows, int cols, int type, byte[rows * cols * elemSize] pixels
+ * </pre>
+ */
+public class ReplayHarness {
+    public static class Report {
+        public int frames;
+        public double framesPerSecond;
+        public long p50Nanos, p95Nanos, p99Nanos, maxNanos;
+        // 0-based region index selected after each frame, or -1 for none
+        public int[] selections;
+
+        public String selectionSequence() {
+            StringBuilder sequence = new StringBuilder();
+            for (int selection : selections) {
+                sequence.append(selection < 0 ? "-" : Integer.toString(selection));
+            }
+            return sequence.toString();
+        }
+    }
+
+    private final OpenCvPipeline pipeline;
+    private final IntSupplier selection;
+
+    /**
+     * @param selection Reads the pipeline's current 0-based selection after each frame, or null
+     *                  for pipelines that do not select anything
+     */
+    public ReplayHarness(OpenCvPipeline pipeline, IntSupplier selection) {
+        this.pipeline = pipeline;
+        this.selection = selection;
+    }
+
+    /**
+     * Desktop entry point. The OpenCV native library must be on <i>java.library.path</i>.
+     * The pipeline is built with its public <i>(String)</i> constructor when a camera name
+     * is given (e.g. {@link DrawRectanglePipeline#DrawRectanglePipeline(String)}, which
+     * picks that camera's ROI layout), or its public no-argument constructor otherwise.
+     * Pipelines with a <i>getLatestSelection()</i> method report their selections, and
+     * asynchronous pipelines are refused because only the hand-off would be timed.
+     * <pre>
+     *     java -Djava.library.path=... -cp ... org.firstinspires.ftc.teamcode.opencv.ReplayHarness \
+     *             &lt;frame directory or raw dump&gt; &lt;pipeline class&gt; [passes] [camera name]
+     *
+     *     ... ReplayHarness frames/ org.firstinspires.ftc.teamcode.opencv.DrawRectanglePipeline 5 WebcamC270
+     * </pre>
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: ReplayHarness <frame directory or raw dump> <pipeline class> [passes] [camera name]");
+            System.exit(2);
+        }
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        // Looked up reflectively so the harness does not link against the robot-only classes
+        Class<?> pipelineClass = Class.forName(args[1]);
+        OpenCvPipeline pipeline = (OpenCvPipeline) ((args.length > 3)
+                ? pipelineClass.getConstructor(String.class).newInstance(args[3])
+                : pipelineClass.getConstructor().newInstance());
+        int passes = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+
+        Method isAsync = findMethod(pipelineClass, "isAsync");
+        if (isAsync != null && (Boolean) isAsync.invoke(pipeline)) {
+            System.err.println(pipelineClass.getSimpleName() + " analyzes asynchronously; replay it in synchronous mode");
+            System.exit(2);
+        }
+
+        Method latestSelection = findMethod(pipelineClass, "getLatestSelection");
+        IntSupplier selection = (latestSelection == null) ? null : () -> {
+            try {
+                return (Integer) latestSelection.invoke(pipeline);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+
+        Report report;
+        try {
+            report = new ReplayHarness(pipeline, selection).run(new File(args[0]), passes);
+        } finally {
+            Method release = findMethod(pipelineClass, "release");
+            if (release != null) {
+                release.invoke(pipeline);
+            }
+        }
+
+        System.out.printf("Frames      %d%n", report.frames);
+        System.out.printf("Throughput  %.1f fps%n", report.framesPerSecond);
+        System.out.printf("Latency     p50 %.2f  p95 %.2f  p99 %.2f  max %.2f ms%n",
+                report.p50Nanos * 1e-6, report.p95Nanos * 1e-6, report.p99Nanos * 1e-6, report.maxNanos * 1e-6);
+        System.out.printf("Selections  %s%n", report.selectionSequence());
+    }
+
+    /**
+     * Replay every frame in <i>source</i> <i>passes</i> times.
+     */
+    public Report run(File source, int passes) throws IOException {
+        List<Mat> frames = source.isDirectory() ? loadImages(source) : loadRawDump(source);
+        if (frames.isEmpty()) {
+            throw new IOException("No frames found in " + source);
+        }
+
+        try {
+            return replay(frames, passes);
+        } finally {
+            for (Mat frame : frames) {
+                frame.release();
+            }
+        }
+    }
+
+    Report replay(List<Mat> frames, int passes) {
+        int total = frames.size() * passes;
+        long[] latencies = new long[total];
+        int[] selections = new int[total];
+        Mat working = new Mat();
+
+        pipeline.init(frames.get(0));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            frames.get(i % frames.size()).copyTo(working);
+
+            long frameStart = System.nanoTime();
+            pipeline.processFrame(working);
+            latencies[i] = System.nanoTime() - frameStart;
+
+            selections[i] = (selection == null) ? -1 : selection.getAsInt();
+        }
+        long elapsed = System.nanoTime() - start;
+        working.release();
+
+        Report report = new Report();
+        report.frames = total;
+        report.framesPerSecond = total / (elapsed * 1e-9);
+        report.selections = selections;
+
+        Arrays.sort(latencies);
+        report.p50Nanos = percentile(latencies, 50);
+        report.p95Nanos = percentile(latencies, 95);
+        report.p99Nanos = percentile(latencies, 99);
+        report.maxNanos = latencies[total - 1];
+        return report;
+    }
+
+    private static Method findMethod(Class<?> type, String name) {
+        try {
+            return type.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    static List<Mat> loadImages(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + directory);
+        }
+        Arrays.sort(files);
+
+        List<Mat> frames = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName().toLowerCase();
+            if (!name.endsWith(".png") && !name.endsWith(".jpg") && !name.endsWith(".jpeg")) {
+                continue;
+            }
+
+            Mat bgr = Imgcodecs.imread(file.getAbsolutePath());
+            if (bgr.empty()) {
+                throw new IOException("Cannot decode " + file);
+            }
+            Mat rgba = new Mat();
+            Imgproc.cvtColor(bgr, rgba, Imgproc.COLOR_BGR2RGBA);
+            bgr.release();
+            frames.add(rgba);
+        }
+        return frames;
+    }
+
+    static List<Mat> loadRawDump(File file) throws IOException {
+        List<Mat> frames = new ArrayList<>();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int rows, cols, type;
+                try {
+                    rows = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                cols = in.readInt();
+                type = in.readInt();
+
+                Mat frame = new Mat(rows, cols, type);
+                byte[] pixels = new byte[(int) (frame.total() * frame.elemSize())];
+                in.readFully(pixels);
+                frame.put(0, 0, pixels);
+
+                if (frame.channels() == 3 && CvType.depth(type) == CvType.CV_8U) {
+                    Imgproc.cvtColor(frame, frame, Imgproc.COLOR_RGB2RGBA);
+                }
+                frames.add(frame);
+            }
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,96 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import org.opencv.core.Rect;
+
+/**
+ * Per-camera region-of-interest layouts, stored in unit coordinates (fractions of the
+ * frame width and height) so the same layout works at any streaming resolution.
+ * <p>
+ * To add a camera, add a row to <i>profiles</i>: the camera name from the robot
+ * configuration, the resolution the regions were measured at, and x, y, width, height
+ * of each region in pixels at that resolution. Rows are converted to unit coordinates
+ * once, when the class is loaded.
+ */
+public class RoiLayout {
+    /*
+     * Note: pixel values are only used to compute the unit coordinates; the
+     *       measured resolution is also the default when none is given
+     */
+    static final int[][] profiles = {
+            //  Width Height  rect1 x,y,w,h       rect2 x,y,w,h       rect3 x,y,w,h
+            {   320,  240,    50, 42, 40, 40,    125, 42, 40, 40,    200, 42, 40, 40},  // WebcamC270
+            {   640,  480,   275, 45, 50, 50,    360, 45, 50, 50,    445, 45, 50, 50},  // Webcam1080
+    };
+    static final String[] cameraNames = {"WebcamC270", "Webcam1080"};
+
+    // Cameras not in the table (e.g. "limelight") fall back to this profile
+    static final int DEFAULT_PROFILE = 1;
+
+    private static final RoiLayout[] layouts = new RoiLayout[profiles.length];
+
+    static {
+        for (int i = 0; i < profiles.length; i++) {
+            layouts[i] = new RoiLayout(profiles[i]);
+        }
+    }
+
+    public final int measuredWidth, measuredHeight;
+
+    // x, y, width, height per region, as fractions of the frame
+    private final float[] unitRects;
+
+    private RoiLayout(int[] profile) {
+        measuredWidth = profile[0];
+        measuredHeight = profile[1];
+
+        unitRects = new float[profile.length - 2];
+        for (int i = 0; i < unitRects.length; i++) {
+            int size = (i % 2 == 0) ? measuredWidth : measuredHeight;
+            unitRects[i] = (float) profile[i + 2] / size;
+        }
+    }
+
+    /**
+     * @return Layout for the named camera, or the default layout for unknown cameras
+     */
+    public static RoiLayout forCamera(String cameraName) {
+        for (int i = 0; i < cameraNames.length; i++) {
+            if (cameraNames[i].equals(cameraName)) {
+                return layouts[i];
+            }
+        }
+        return layouts[DEFAULT_PROFILE];
+    }
+
+    public int getRegionCount() {
+        return unitRects.length / 4;
+    }
+
+    /**
+     * Scale one region to a frame size, keeping it inside the frame.
+     */
+    public Rect scale(int region, int frameWidth, int frameHeight) {
+        int i = region * 4;
+        int x = Math.round(unitRects[i] * frameWidth);
+        int y = Math.round(unitRects[i + 1] * frameHeight);
+        int width = Math.max(1, Math.round(unitRects[i + 2] * frameWidth));
+        int height = Math.max(1, Math.round(unitRects[i + 3] * frameHeight));
+
+        x = Math.max(0, Math.min(frameWidth - 1, x));
+        y = Math.max(0, Math.min(frameHeight - 1, y));
+        width = Math.min(width, frameWidth - x);
+        height = Math.min(height, frameHeight - y);
+        return new Rect(x, y, width, height);
+    }
+
+    /**
+     * @return Every region scaled to the given frame size
+     */
+    public Rect[] scaleAll(int frameWidth, int frameHeight) {
+        Rect[] rects = new Rect[getRegionCount()];
+        for (int i = 0; i < rects.length; i++) {
+            rects[i] = scale(i, frameWidth, frameHeight);
+        }
+        return rects;
+    }
+}
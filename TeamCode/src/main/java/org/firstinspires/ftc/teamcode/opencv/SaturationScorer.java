@@ -0,0 +1,70 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import org.opencv.core.Mat;
+
+/**
+ * Computes HSV saturation straight from RGB(A) pixels, skipping the full three-channel
+ * <i>COLOR_RGB2HSV</i> conversion when saturation is the only channel that is used.
+ * <p>
+ * Pixels are read with one bulk <i>Mat.get</i> into a reused byte[] and the saturation
+ * of each pixel is written into a reused single-channel buffer. The arithmetic matches
+ * OpenCV's 8-bit conversion exactly (see {@link ColorMath#saturation(int, int, int)}).
+ */
+public class SaturationScorer {
+    private byte[] pixels = new byte[0];
+    private byte[] saturation = new byte[0];
+    private int pixelCount = 0;
+
+    /**
+     * Fill the saturation buffer from an 8-bit RGB or RGBA region.
+     *
+     * @return Number of pixels written to {@link #getSaturationBuffer()}
+     */
+    public int extract(Mat rgbRoi) {
+        int channels = rgbRoi.channels();
+        int length = (int) rgbRoi.total() * channels;
+        if (pixels.length < length) {
+            pixels = new byte[length];
+        }
+        if (saturation.length < rgbRoi.total()) {
+            saturation = new byte[(int) rgbRoi.total()];
+        }
+
+        int copied = rgbRoi.get(0, 0, pixels);
+        pixelCount = copied / channels;
+
+        for (int p = 0, i = 0; p < pixelCount; p++, i += channels) {
+            saturation[p] = (byte) ColorMath.saturation(
+                    pixels[i] & 0xFF, pixels[i + 1] & 0xFF, pixels[i + 2] & 0xFF);
+        }
+        return pixelCount;
+    }
+
+    /**
+     * @return Mean HSV saturation (0..255) of an 8-bit RGB or RGBA region
+     */
+    public double meanSaturation(Mat rgbRoi) {
+        int count = extract(rgbRoi);
+        if (count == 0) {
+            return 0;
+        }
+
+        long sum = 0;
+        for (int p = 0; p < count; p++) {
+            sum += saturation[p] & 0xFF;
+        }
+        return (double) sum / count;
+    }
+
+    /**
+     * @return Saturation of the last extracted region, one byte per pixel, row-major;
+     *         only the first {@link #getPixelCount()} entries are valid
+     */
+    public byte[] getSaturationBuffer() {
+        return saturation;
+    }
+
+    public int getPixelCount() {
+        return pixelCount;
+    }
+}
@@ -0,0 +1,107 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+/**
+ * Streaming, constant-memory vote over per-frame region scores, so a single glare
+ * frame cannot flip the selection.
+ * <p>
+ * Each region keeps an exponentially weighted moving average of its score; the voted
+ * selection is the region with the highest average. A fixed ring of the most recent
+ * per-frame winners gives the confidence: the fraction of those frames that agree
+ * with the voted selection.
+ * <p>
+ * {@link #update(double[])} is meant to be called from a single analysis thread;
+ * the getters may be called from any thread.
+ */
+public class SelectionVoter {
+    private final double alpha;
+    private final double[] averages;
+    private final int[] recentWinners;
+    private int recentCount = 0;
+    private int recentNext = 0;
+    private boolean primed = false;
+
+    private volatile int selection = -1;
+    private volatile double confidence = 0;
+
+    /**
+     * @param regions     Number of scores per frame
+     * @param historySize Number of recent frames used for the confidence
+     * @param alpha       Weight of the newest frame in the moving average (0..1]
+     */
+    public SelectionVoter(int regions, int historySize, double alpha) {
+        this.alpha = alpha;
+        averages = new double[regions];
+        recentWinners = new int[historySize];
+    }
+
+    /**
+     * Add one frame's scores to the vote.
+     *
+     * @return The voted selection (index into <i>scores</i>)
+     */
+    public int update(double[] scores) {
+        int frameWinner = argmax(scores);
+
+        for (int i = 0; i < averages.length; i++) {
+            averages[i] = primed ? averages[i] + alpha * (scores[i] - averages[i]) : scores[i];
+        }
+        primed = true;
+
+        recentWinners[recentNext] = frameWinner;
+        recentNext = (recentNext + 1) % recentWinners.length;
+        recentCount = Math.min(recentCount + 1, recentWinners.length);
+
+        int voted = argmax(averages);
+        int agreeing = 0;
+        for (int i = 0; i < recentCount; i++) {
+            if (recentWinners[i] == voted) {
+                agreeing++;
+            }
+        }
+
+        // Count missing history as disagreement so a few early frames are not "certain"
+        confidence = (double) agreeing / recentWinners.length;
+        selection = voted;
+        return voted;
+    }
+
+    /**
+     * @return Voted selection (index into the scores), or -1 before the first update
+     */
+    public int getSelection() {
+        return selection;
+    }
+
+    /**
+     * @return Fraction (0..1) of the recent frames whose winner matches the selection
+     */
+    public double getConfidence() {
+        return confidence;
+    }
+
+    public boolean isStable(double minConfidence) {
+        return selection >= 0 && confidence >= minConfidence;
+    }
+
+    /**
+     * Forget all history, e.g. after the camera or ROI layout changed.
+     * Must not be called concurrently with {@link #update(double[])}.
+     */
+    public void reset() {
+        primed = false;
+        recentCount = 0;
+        recentNext = 0;
+        selection = -1;
+        confidence = 0;
+    }
+
+    private static int argmax(double[] values) {
+        int best = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,173 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import android.annotation.SuppressLint;
+
+import com.acmerobotics.roadrunner.ftc.DownsampledWriter;
+
+import org.firstinspires.ftc.robotcore.external.Telemetry;
+import org.firstinspires.ftc.teamcode.GeneralConstants;
+import org.firstinspires.ftc.teamcode.messages.VisionStageMessage;
+
+import java.util.Arrays;
+
+/**
+ * Lightweight per-stage timer for vision pipelines.
+ * <p>
+ * {@link #start(int)} and {@link #stop(int)} only call {@link System#nanoTime()} and
+ * write into pre-allocated arrays, so timing a stage costs well under a microsecond
+ * and allocates nothing. Each stage keeps a rolling window of its most recent
+ * durations, from which p50/p95/p99 are computed when the numbers are published.
+ * <p>
+ * Each stage must be timed from a single thread. Publishing may happen on another
+ * thread; a sample written while the window is being read can make one report slightly
+ * stale, which is acceptable for tuning data.
+ * <p>
+ * Stages that a pipeline skips on its current path (e.g. a color conversion the direct
+ * path never runs) are reported as idle rather than as a zero-cost stage, and are left
+ * out of FlightRecorder.
+ * <pre>
+ *     timer.start(STAGE_CONVERT);
+ *     Imgproc.cvtColor(input, hsvMat, Imgproc.COLOR_RGB2HSV);
+ *     timer.stop(STAGE_CONVERT);
+ * </pre>
+ */
+public class StageTimer {
+    public static final int DEFAULT_WINDOW = 128;
+    static final long FLIGHT_RECORDER_INTERVAL_NANOS = 100_000_000;
+    // A stage with no sample for this long is no longer on the pipeline's path
+    static final long IDLE_NANOS = 1_000_000_000;
+
+    private final String[] names;
+    private final long[] starts;
+    private final long[][] windows;
+    private final int[] next;
+    private final long[] counts;
+    private final long[] lastStopNanos;
+
+    // Used only by the publishing thread
+    private final long[] sorted;
+    private final DownsampledWriter[] writers;
+    private long lastFlightRecorderNanos = 0;
+
+    public StageTimer(String... stageNames) {
+        this(DEFAULT_WINDOW, stageNames);
+    }
+
+    /**
+     * @param window     Number of recent samples kept per stage
+     * @param stageNames Names used in telemetry and FlightRecorder channels
+     */
+    public StageTimer(int window, String... stageNames) {
+        names = stageNames.clone();
+        starts = new long[names.length];
+        windows = new long[names.length][window];
+        next = new int[names.length];
+        counts = new long[names.length];
+        lastStopNanos = new long[names.length];
+        sorted = new long[window];
+
+        writers = new DownsampledWriter[names.length];
+        for (int i = 0; i < names.length; i++) {
+            writers[i] = new DownsampledWriter("VISION_STAGE_" + names[i].toUpperCase(),
+                    FLIGHT_RECORDER_INTERVAL_NANOS);
+        }
+    }
+
+    public void start(int stage) {
+        starts[stage] = System.nanoTime();
+    }
+
+    public void stop(int stage) {
+        long now = System.nanoTime();
+        long elapsed = now - starts[stage];
+        lastStopNanos[stage] = now;
+        long[] window = windows[stage];
+
+        window[next[stage]] = elapsed;
+        next[stage] = (next[stage] + 1) % window.length;
+        counts[stage]++;
+    }
+
+    public int getStageCount() {
+        return names.length;
+    }
+
+    public String getStageName(int stage) {
+        return names[stage];
+    }
+
+    public long getSampleCount(int stage) {
+        return counts[stage];
+    }
+
+    /**
+     * @return True if the stage has been timed within the last second
+     */
+    public boolean isActive(int stage) {
+        return counts[stage] > 0 && System.nanoTime() - lastStopNanos[stage] < IDLE_NANOS;
+    }
+
+    /**
+     * @param stage      Stage index
+     * @param percentile Percentile in 0..100
+     * @return Duration in nanoseconds over the rolling window, or 0 if there are no samples
+     */
+    public synchronized long percentile(int stage, double percentile) {
+        return sortedPercentile(sortWindow(stage), percentile);
+    }
+
+    // Copy the stage's window into <sorted> and sort it; returns the sample count
+    private int sortWindow(int stage) {
+        int size = (int) Math.min(counts[stage], sorted.length);
+        System.arraycopy(windows[stage], 0, sorted, 0, size);
+        Arrays.sort(sorted, 0, size);
+        return size;
+    }
+
+    private long sortedPercentile(int size, double percentile) {
+        if (size == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+
+    @SuppressLint("DefaultLocale")
+    public void addTelemetry(Telemetry telemetry) {
+        for (int i = 0; i < names.length; i++) {
+            if (!isActive(i)) {
+                telemetry.addData(names[i], "idle");
+                continue;
+            }
+            telemetry.addData(names[i], String.format("p50 %.3f  p95 %.3f  p99 %.3f ms",
+                    percentile(i, 50) * GeneralConstants.NANO2MS,
+                    percentile(i, 95) * GeneralConstants.NANO2MS,
+                    percentile(i, 99) * GeneralConstants.NANO2MS));
+        }
+    }
+
+    /**
+     * Log the current percentiles to FlightRecorder, at most ten times a second. Cheap
+     * enough to call every loop: between writes it only reads the clock, so no
+     * percentiles are sorted and no messages are built just to be discarded.
+     */
+    public synchronized void writeFlightRecorder() {
+        long now = System.nanoTime();
+        if (lastFlightRecorderNanos != 0 && now - lastFlightRecorderNanos < FLIGHT_RECORDER_INTERVAL_NANOS) {
+            return;
+        }
+        lastFlightRecorderNanos = now;
+
+        for (int i = 0; i < names.length; i++) {
+            if (!isActive(i)) {
+                continue;
+            }
+            // One sort per stage for all three percentiles
+            int size = sortWindow(i);
+            writers[i].write(new VisionStageMessage(names[i], counts[i],
+                    sortedPercentile(size, 50) * GeneralConstants.NANO2MS,
+                    sortedPercentile(size, 95) * GeneralConstants.NANO2MS,
+                    sortedPercentile(size, 99) * GeneralConstants.NANO2MS));
+        }
+    }
+}
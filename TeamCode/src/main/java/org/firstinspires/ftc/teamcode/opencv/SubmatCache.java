@@ -0,0 +1,64 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * Hands out a submat of a fixed region for a parent Mat, creating the header only
+ * the first time a given parent is seen. EasyOpenCV normally delivers every frame in
+ * the same Mat, so after the first frame {@link #of(Mat)} allocates nothing.
+ * <p>
+ * A parent is matched by identity and by its data address, so a parent that has
+ * been reallocated (for example by a resolution change) gets a fresh header.
+ */
+public class SubmatCache {
+    private final Rect region;
+    private final Mat[] parents;
+    private final long[] dataAddrs;
+    private final Mat[] views;
+    private int next = 0;
+
+    /**
+     * @param region   Region of the parent to expose
+     * @param capacity Number of distinct parents to remember
+     */
+    public SubmatCache(Rect region, int capacity) {
+        this.region = region;
+        parents = new Mat[capacity];
+        dataAddrs = new long[capacity];
+        views = new Mat[capacity];
+    }
+
+    /**
+     * @return The cached submat of <i>parent</i>, creating it if needed
+     */
+    public Mat of(Mat parent) {
+        long dataAddr = parent.dataAddr();
+        for (int i = 0; i < views.length; i++) {
+            if (parents[i] == parent && dataAddrs[i] == dataAddr) {
+                return views[i];
+            }
+        }
+
+        int i = next;
+        next = (next + 1) % views.length;
+
+        if (views[i] != null) {
+            views[i].release();
+        }
+        views[i] = parent.submat(region);
+        parents[i] = parent;
+        dataAddrs[i] = dataAddr;
+        return views[i];
+    }
+
+    public void release() {
+        for (int i = 0; i < views.length; i++) {
+            if (views[i] != null) {
+                views[i].release();
+            }
+            views[i] = null;
+            parents[i] = null;
+        }
+    }
+}
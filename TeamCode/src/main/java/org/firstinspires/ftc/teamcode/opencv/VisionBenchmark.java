@@ -0,0 +1,284 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import android.annotation.SuppressLint;
+import android.os.Debug;
+
+import com.acmerobotics.dashboard.FtcDashboard;
+import com.acmerobotics.dashboard.config.Config;
+import com.acmerobotics.dashboard.telemetry.MultipleTelemetry;
+import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+
+import org.firstinspires.ftc.teamcode.GeneralConstants;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * On-robot micro benchmark for the vision code in this package. It runs each
+ * case against a synthetic frame so results are repeatable and need no camera.
+ * <p>
+ * Press start, wait for the cases to finish, and read the per-frame times from the
+ * Driver Station or FTC Dashboard.
+ */
+@Config
+@TeleOp(group = GeneralConstants.TEST_OPMODE)
+public class VisionBenchmark extends LinearOpMode {
+    public static int width = 640;
+    public static int height = 480;
+    public static int warmup = 50;
+    public static int iterations = 300;
+    public static int windowWidth = 50;
+    public static int windowHeight = 50;
+    public static int windowStep = 20;
+
+    // Published DetectionResult and its copy of the scores
+    static final double MAX_ALLOCATIONS_PER_FRAME = 2;
+    // BlobTrackerPipeline has to keep up with a 30 fps camera at 320x240
+    static final double BLOB_TRACKER_BUDGET_MS = 1000.0 / 30;
+
+    Mat rgbMat = new Mat();
+    Mat hsvMat = new Mat();
+
+    // Failed checks, thrown once every case has been reported
+    final StringBuilder failures = new StringBuilder();
+    Object[] allocationProbe;
+
+    @SuppressLint("DefaultLocale")
+    @Override
+    public void runOpMode() {
+        telemetry = new MultipleTelemetry(telemetry, FtcDashboard.getInstance().getTelemetry());
+
+        rgbMat.create(height, width, CvType.CV_8UC3);
+        Core.randu(rgbMat, 0, 256);
+
+        DrawRectanglePipeline pipeline = new DrawRectanglePipeline(telemetry, "Webcam1080", width, height);
+        Rect[] spikeMarks = {pipeline.rect1, pipeline.rect2, pipeline.rect3};
+        Rect[] windows = IntegralImageScorer.slidingWindows(
+                new Rect(0, 0, width, height / 4), windowWidth, windowHeight, windowStep, windowStep);
+        double[] scores = new double[windows.length];
+        IntegralImageScorer scorer = new IntegralImageScorer(IntegralImageScorer.SATURATION_CHANNEL);
+
+        telemetry.addData("Frame", "%dx%d", width, height);
+        telemetry.addData("Sliding windows", windows.length);
+        telemetry.addLine("Press start to run");
+        telemetry.update();
+
+        waitForStart();
+
+        report("submat mean, 3 rects", run(() -> {
+            Imgproc.cvtColor(rgbMat, hsvMat, Imgproc.COLOR_RGB2HSV);
+            for (Rect rect : spikeMarks) {
+                pipeline.getAvgSaturation(hsvMat, rect);
+            }
+        }));
+        report("integral, 3 rects", run(() -> {
+            Imgproc.cvtColor(rgbMat, hsvMat, Imgproc.COLOR_RGB2HSV);
+            scorer.update(hsvMat);
+            scorer.scoreAll(spikeMarks, scores);
+        }));
+        report(String.format("submat mean, %d rects", windows.length), run(() -> {
+            Imgproc.cvtColor(rgbMat, hsvMat, Imgproc.COLOR_RGB2HSV);
+            for (Rect rect : windows) {
+                pipeline.getAvgSaturation(hsvMat, rect);
+            }
+        }));
+        report(String.format("integral, %d rects", windows.length), run(() -> {
+            Imgproc.cvtColor(rgbMat, hsvMat, Imgproc.COLOR_RGB2HSV);
+            scorer.update(hsvMat);
+            scorer.scoreAll(windows, scores);
+        }));
+
+        boolean roiOnly = DrawRectanglePipeline.roiOnlyConversion;
+        boolean direct = DrawRectanglePipeline.directSaturation;
+        DrawRectanglePipeline.directSaturation = false;
+        DrawRectanglePipeline.roiOnlyConversion = false;
+        report("findRectangle, full frame", run(() -> pipeline.findRectangle(rgbMat)));
+        DrawRectanglePipeline.roiOnlyConversion = true;
+        report("findRectangle, ROI only", run(() -> pipeline.findRectangle(rgbMat)));
+        DrawRectanglePipeline.directSaturation = true;
+        report("findRectangle, direct saturation", run(() -> pipeline.findRectangle(rgbMat)));
+        DrawRectanglePipeline.roiOnlyConversion = roiOnly;
+        DrawRectanglePipeline.directSaturation = direct;
+
+        int saturationError = checkSaturation();
+        check("Direct saturation vs OpenCV", saturationError == 0, "max error " + saturationError);
+
+        Rect[] zones = IntegralImageScorer.slidingWindows(
+                new Rect(0, 0, width, height / 4), windowWidth, windowHeight, windowWidth + 10, windowHeight + 10);
+        ZoneClassifierPipeline zonePipeline = new ZoneClassifierPipeline(
+                zones, new ZoneMetric.MeanSaturation(), new ZoneDecision.Argmax(), false);
+        zonePipeline.setViewportAttached(false);
+        report(String.format("ZoneClassifier, %d zones", zones.length), run(() -> zonePipeline.processFrame(rgbMat)));
+        zonePipeline.release();
+
+        // Noise background, which labels into many small components, plus three pieces
+        Mat blobFrame = new Mat();
+        Imgproc.resize(rgbMat, blobFrame, new Size(320, 240));
+        for (Rect piece : new Rect[]{new Rect(20, 100, 40, 30), new Rect(140, 60, 50, 50), new Rect(250, 150, 30, 40)}) {
+            Mat pieceMat = blobFrame.submat(piece);
+            pieceMat.setTo(new Scalar(255, 220, 0));
+            pieceMat.release();
+        }
+        BlobTrackerPipeline blobTracker = new BlobTrackerPipeline(HueBandCounter.YELLOW_BAND, 0, false);
+        blobTracker.setViewportAttached(false);
+        double blobNanos = run(() -> blobTracker.processFrame(blobFrame));
+        report("BlobTracker, 320x240", blobNanos);
+        check("BlobTracker 30 fps at 320x240", blobNanos * GeneralConstants.NANO2MS <= BLOB_TRACKER_BUDGET_MS,
+                String.format("%.1f ms, budget %.1f ms", blobNanos * GeneralConstants.NANO2MS, BLOB_TRACKER_BUDGET_MS));
+        blobTracker.release();
+        blobFrame.release();
+
+        HueBandCounter bandCounter = new HueBandCounter();
+        int[] bandCounts = new int[HueBandCounter.BAND_COUNT];
+        Mat bandMask = new Mat();
+        Imgproc.cvtColor(rgbMat, hsvMat, Imgproc.COLOR_RGB2HSV);
+        HueBandCounter.Band[] bands = {HueBandCounter.RED, HueBandCounter.BLUE, HueBandCounter.YELLOW};
+        report("inRange, 3 bands", run(() -> {
+            // Red wraps through 0, which inRange cannot express in one call; timing is what matters here
+            for (HueBandCounter.Band band : bands) {
+                Core.inRange(hsvMat, new Scalar(band.hueMin, band.satMin, band.valMin),
+                        new Scalar(band.hueMax, band.satMax, band.valMax), bandMask);
+                Core.countNonZero(bandMask);
+            }
+        }));
+        report("band LUT, 3 bands", run(() -> bandCounter.count(hsvMat, bandCounts)));
+        telemetry.addData("Band LUT rebuilds", bandCounter.getRebuildCount());
+        bandMask.release();
+
+        pipeline.setViewportAttached(true);
+        report("processFrame, annotated", run(() -> pipeline.processFrame(rgbMat)));
+        pipeline.setViewportAttached(false);
+        report("processFrame, headless", run(() -> pipeline.processFrame(rgbMat)));
+        pipeline.setViewportAttached(true);
+
+        if (allocationCountingWorks()) {
+            double allocations = allocationsPerFrame(pipeline);
+            check("processFrame allocations", allocations <= MAX_ALLOCATIONS_PER_FRAME,
+                    String.format("%.2f /frame, limit %.0f", allocations, MAX_ALLOCATIONS_PER_FRAME));
+        } else {
+            check("processFrame allocations", false, "allocation counting unavailable on this runtime");
+        }
+        telemetry.update();
+
+        scorer.release();
+        pipeline.release();
+        rgbMat.release();
+        hsvMat.release();
+
+        if (failures.length() > 0) {
+            throw new RuntimeException(getClass().getSimpleName() + " failed: " + failures);
+        }
+
+        while (opModeIsActive()) {
+            idle();
+        }
+    }
+
+    /**
+     * @return Average nanoseconds per call of <i>frame</i> after warm-up
+     */
+    double run(Runnable frame) {
+        for (int i = 0; i < warmup && !isStopRequested(); i++) {
+            frame.run();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations && !isStopRequested(); i++) {
+            frame.run();
+        }
+        return (double) (System.nanoTime() - start) / iterations;
+    }
+
+    /**
+     * Compare {@link SaturationScorer} against OpenCV's HSV conversion on the synthetic
+     * frame, as both RGB and RGBA input.
+     *
+     * @return Largest per-pixel difference; anything but 0 is a bug
+     */
+    int checkSaturation() {
+        SaturationScorer saturationScorer = new SaturationScorer();
+        Mat rgbaMat = new Mat();
+        Imgproc.cvtColor(rgbMat, rgbaMat, Imgproc.COLOR_RGB2RGBA);
+        Imgproc.cvtColor(rgbMat, hsvMat, Imgproc.COLOR_RGB2HSV);
+
+        byte[] hsv = new byte[(int) hsvMat.total() * 3];
+        hsvMat.get(0, 0, hsv);
+
+        int maxError = 0;
+        for (Mat input : new Mat[]{rgbMat, rgbaMat}) {
+            int count = saturationScorer.extract(input);
+            byte[] saturation = saturationScorer.getSaturationBuffer();
+            for (int p = 0; p < count; p++) {
+                int error = Math.abs((saturation[p] & 0xFF) - (hsv[p * 3 + 1] & 0xFF));
+                maxError = Math.max(maxError, error);
+            }
+        }
+
+        rgbaMat.release();
+        return maxError;
+    }
+
+    /**
+     * Count heap allocations made by a warmed-up <i>processFrame</i>. The only
+     * expected ones are the published DetectionResult and its copy of the scores;
+     * anything above {@link #MAX_ALLOCATIONS_PER_FRAME} is a regression of the
+     * pooled-resource path.
+     */
+    @SuppressWarnings("deprecation")
+    double allocationsPerFrame(DrawRectanglePipeline pipeline) {
+        for (int i = 0; i < warmup && !isStopRequested(); i++) {
+            pipeline.processFrame(rgbMat);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < iterations && !isStopRequested(); i++) {
+            pipeline.processFrame(rgbMat);
+        }
+        Debug.stopAllocCounting();
+        return (double) Debug.getThreadAllocCount() / iterations;
+    }
+
+    /**
+     * <i>Debug</i>'s allocation counting is deprecated and a runtime may stop counting,
+     * which would make every allocation check pass. Count a known number of allocations
+     * first.
+     */
+    @SuppressWarnings("deprecation")
+    boolean allocationCountingWorks() {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        // Stored in a field so the allocations cannot be optimized away
+        allocationProbe = new Object[8];
+        for (int i = 0; i < allocationProbe.length; i++) {
+            allocationProbe[i] = new Object();
+        }
+        Debug.stopAllocCounting();
+        allocationProbe = null;
+        return Debug.getThreadAllocCount() >= 9;
+    }
+
+    /**
+     * Show a PASS or FAIL line. Failures are collected and thrown after every case has
+     * been reported.
+     */
+    void check(String name, boolean pass, String detail) {
+        telemetry.addData(name, (pass ? "PASS, " : "FAIL, ") + detail);
+        if (!pass) {
+            if (failures.length() > 0) {
+                failures.append("; ");
+            }
+            failures.append(name).append(": ").append(detail);
+        }
+    }
+
+    @SuppressLint("DefaultLocale")
+    void report(String name, double nanosPerFrame) {
+        telemetry.addData(name, "%.3f ms/frame", nanosPerFrame * GeneralConstants.NANO2MS);
+    }
+}
@@ -0,0 +1,237 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import android.annotation.SuppressLint;
+
+import com.acmerobotics.dashboard.FtcDashboard;
+import com.acmerobotics.dashboard.config.Config;
+
+import org.firstinspires.ftc.robotcore.external.Telemetry;
+import org.firstinspires.ftc.robotcore.external.stream.CameraStreamSource;
+import org.firstinspires.ftc.teamcode.GeneralConstants;
+
+/**
+ * Throttles vision work once it stops paying for itself, so the Control Hub CPU goes
+ * to drive control.
+ * <p>
+ * The governor watches two signals: the stability of the pipeline's
+ * {@link SelectionVoter} and the loop time reported by the drive thread. When the
+ * answer is stable or the drive loop is over budget it switches to
+ * {@link Mode#THROTTLED} (analyze one frame in N and stream fewer frames to the
+ * dashboard), and optionally to {@link Mode#PAUSED}. {@link #requestFullRate(boolean)}
+ * brings it back to full rate on demand.
+ * <p>
+ * Starting the dashboard stream does not by itself mean anyone is watching, so stream
+ * frames are only annotated when <i>annotateStream</i> is set. Otherwise the overlay is
+ * only drawn for an attached viewport, and the dashboard gets the plain camera frames.
+ * <p>
+ * Usage from an OpMode loop:
+ * <pre>
+ *     VisionGovernor governor = new VisionGovernor(pipeline, pipeline.voter);
+ *     governor.setStreamSource(webcam);
+ *
+ *     while (opModeIsActive()) {
+ *         ...
+ *         governor.update(loopNanos);
+ *         governor.addTelemetry(telemetry);
+ *     }
+ * </pre>
+ */
+@Config
+public class VisionGovernor {
+    public static class Params {
+        // Analyze one frame out of this many while throttled
+        public int throttledFrameInterval = 5;
+        // Drive loop time above which vision is throttled
+        public double loopBudgetMs = 20;
+        // Vote confidence at which the answer is considered known
+        public double stableConfidence = 0.9;
+        // Pause analysis entirely (rather than throttle) once stable
+        public boolean pauseWhenStable = false;
+
+        public int dashboardFps = 30;
+        public int throttledDashboardFps = 5;
+        // Draw the overlay on dashboard stream frames; costs the annotation every frame
+        // whether or not a dashboard client is connected
+        public boolean annotateStream = false;
+    }
+
+    public static Params PARAMS = new Params();
+
+    public enum Mode {
+        FULL,
+        THROTTLED,
+        PAUSED
+    }
+
+    private final AsyncAnalysisPipeline pipeline;
+    private final SelectionVoter voter;
+    private CameraStreamSource streamSource = null;
+    private DashboardStreamer streamer = null;
+
+    private volatile Mode mode = Mode.FULL;
+    private volatile boolean fullRateRequested = false;
+    private double averageLoopNanos = 0;
+
+    // Only touched by the camera thread
+    private int framesSinceAnalysis = 0;
+    private volatile long framesSkipped = 0;
+    private volatile double savedNanos = 0;
+
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * @param pipeline Pipeline to govern; the governor registers itself with it
+     * @param voter    Voter whose confidence signals a known answer, or null
+     */
+    public VisionGovernor(AsyncAnalysisPipeline pipeline, SelectionVoter voter) {
+        this.pipeline = pipeline;
+        this.voter = voter;
+        pipeline.setGovernor(this);
+    }
+
+    /**
+     * Camera whose dashboard stream rate should follow the governor mode. Starts the
+     * dashboard stream at the full rate.
+     */
+    public void setStreamSource(CameraStreamSource source) {
+        streamSource = source;
+        applyStreamRate(mode);
+    }
+
+    /**
+     * Stream through <i>streamer</i>, whose frame rate cap follows the governor mode.
+     * Use instead of {@link #setStreamSource(CameraStreamSource)}.
+     */
+    public void setStreamer(DashboardStreamer streamer) {
+        this.streamer = streamer;
+        pipeline.setStreamer(streamer);
+        applyStreamRate(mode);
+    }
+
+    /**
+     * Force full-rate analysis while <i>requested</i> is true, e.g. while aligning.
+     */
+    public void requestFullRate(boolean requested) {
+        fullRateRequested = requested;
+    }
+
+    /**
+     * Re-evaluate the mode. Call once per drive loop.
+     *
+     * @param loopNanos Duration of the last drive loop, or 0 if unknown
+     */
+    public void update(long loopNanos) {
+        if (loopNanos > 0) {
+            averageLoopNanos = (averageLoopNanos == 0) ? loopNanos
+                    : averageLoopNanos + 0.1 * (loopNanos - averageLoopNanos);
+        }
+
+        boolean stable = voter != null && voter.isStable(PARAMS.stableConfidence);
+        boolean overBudget = averageLoopNanos * GeneralConstants.NANO2MS > PARAMS.loopBudgetMs;
+
+        Mode next;
+        if (fullRateRequested) {
+            next = Mode.FULL;
+        } else if (stable && PARAMS.pauseWhenStable) {
+            next = Mode.PAUSED;
+        } else if (stable || overBudget) {
+            next = Mode.THROTTLED;
+        } else {
+            next = Mode.FULL;
+        }
+
+        if (next != mode) {
+            mode = next;
+            applyStreamRate(next);
+        }
+        // annotateStream may be changed from the dashboard at any time
+        updateStreamAttached();
+    }
+
+    /**
+     * Called by the pipeline for every camera frame.
+     *
+     * @return True if this frame should be analyzed
+     */
+    boolean shouldAnalyze() {
+        Mode current = mode;
+        boolean analyze;
+
+        if (current == Mode.FULL) {
+            analyze = true;
+        } else if (current == Mode.PAUSED) {
+            analyze = false;
+        } else {
+            analyze = ++framesSinceAnalysis >= PARAMS.throttledFrameInterval;
+        }
+
+        if (analyze) {
+            framesSinceAnalysis = 0;
+        } else {
+            framesSkipped++;
+            savedNanos += pipeline.getAverageAnalysisNanos();
+        }
+        return analyze;
+    }
+
+    private void applyStreamRate(Mode mode) {
+        if (streamer != null) {
+            streamer.setMaxFps(mode == Mode.FULL ? PARAMS.dashboardFps
+                    : mode == Mode.THROTTLED ? PARAMS.throttledDashboardFps : 0);
+            updateStreamAttached();
+            return;
+        }
+        if (streamSource == null) {
+            return;
+        }
+
+        FtcDashboard dashboard = FtcDashboard.getInstance();
+        switch (mode) {
+            case FULL:
+                dashboard.startCameraStream(streamSource, PARAMS.dashboardFps);
+                break;
+            case THROTTLED:
+                dashboard.startCameraStream(streamSource, PARAMS.throttledDashboardFps);
+                break;
+            case PAUSED:
+                dashboard.stopCameraStream();
+                break;
+        }
+        updateStreamAttached();
+    }
+
+    private void updateStreamAttached() {
+        boolean streaming = (streamer != null || streamSource != null) && mode != Mode.PAUSED;
+        pipeline.setStreamAttached(streaming && PARAMS.annotateStream);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    /**
+     * @return Estimated analysis time saved so far (skipped frames x average analysis time)
+     */
+    public double getSavedNanos() {
+        return savedNanos;
+    }
+
+    /**
+     * @return Estimated share of one core saved since the governor was created
+     */
+    public double getSavedCpuFraction() {
+        return savedNanos / (System.nanoTime() - startNanos);
+    }
+
+    @SuppressLint("DefaultLocale")
+    public void addTelemetry(Telemetry telemetry) {
+        telemetry.addData("Vision mode", mode);
+        telemetry.addData("Vision frames skipped", framesSkipped);
+        telemetry.addData("Vision CPU saved", String.format("%.0f ms (%.1f%%)",
+                savedNanos * GeneralConstants.NANO2MS, 100 * getSavedCpuFraction()));
+    }
+}
@@ -0,0 +1,122 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Arrays;
+
+/**
+ * Classifies which of N zones holds the game element, with a pluggable
+ * {@link ZoneMetric} and {@link ZoneDecision}.
+ * <p>
+ * All zones are evaluated in a single pass: the bounding union of the zones is read
+ * with one bulk <i>Mat.get</i>, and a pre-computed map from union pixel to zone index
+ * routes each pixel to its zone's accumulator. The cost therefore depends on the size
+ * of the union, not on the number of zones. Zones should not overlap; a pixel covered
+ * by several zones is counted for the first one only.
+ * <p>
+ * Selections are zone indexes starting at 0, or -1 when the decision rule abstains.
+ * <pre>
+ *     ZoneClassifierPipeline pipeline = new ZoneClassifierPipeline(
+ *             RoiLayout.forCamera(camera).scaleAll(width, height),
+ *             new ZoneMetric.MeanSaturation(), new ZoneDecision.MarginOfVictory(10), false);
+ * </pre>
+ */
+public class ZoneClassifierPipeline extends AsyncAnalysisPipeline {
+    Scalar nonSelectedColor = new Scalar(0, 255, 0);
+    Scalar selectedColor = new Scalar(0, 0, 255);
+
+    final Rect[] zones;
+    final ZoneMetric metric;
+    final ZoneDecision decision;
+    public final SelectionVoter voter;
+    public volatile int selectedZone = -1;
+
+    final Rect union;
+    final SubmatCache unionView;
+    // Zone index of each union pixel, row-major, -1 outside every zone
+    final byte[] zoneMap;
+    final int[] zoneAreas;
+    final double[] scores;
+    byte[] pixels = new byte[0];
+
+    public ZoneClassifierPipeline(Rect[] zones, ZoneMetric metric, ZoneDecision decision, boolean async) {
+        super(async);
+        if (zones.length == 0 || zones.length > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException(getClass().getSimpleName() + ": " +
+                    "Zone count must be 1.." + Byte.MAX_VALUE + ", got " + zones.length);
+        }
+
+        this.zones = zones.clone();
+        this.metric = metric;
+        this.decision = decision;
+        voter = new SelectionVoter(zones.length, DrawRectanglePipeline.voteHistory, DrawRectanglePipeline.voteAlpha);
+        scores = new double[zones.length];
+        zoneAreas = new int[zones.length];
+
+        union = DrawRectanglePipeline.union(this.zones);
+        unionView = new SubmatCache(union, RING_SIZE + 1);
+
+        zoneMap = new byte[union.width * union.height];
+        Arrays.fill(zoneMap, (byte) -1);
+        for (int z = zones.length - 1; z >= 0; z--) {
+            Rect zone = DrawRectanglePipeline.relativeTo(zones[z], union);
+            for (int row = zone.y; row < zone.y + zone.height; row++) {
+                Arrays.fill(zoneMap, row * union.width + zone.x, row * union.width + zone.x + zone.width, (byte) z);
+            }
+        }
+        for (byte z : zoneMap) {
+            if (z >= 0) {
+                zoneAreas[z]++;
+            }
+        }
+    }
+
+    @Override
+    protected void analyze(Mat frame) {
+        Mat view = unionView.of(frame);
+        int channels = view.channels();
+        int length = zoneMap.length * channels;
+        if (pixels.length < length) {
+            pixels = new byte[length];
+        }
+        view.get(0, 0, pixels);
+
+        metric.reset(zones.length);
+        for (int p = 0, i = 0; p < zoneMap.length; p++, i += channels) {
+            int zone = zoneMap[p];
+            if (zone >= 0) {
+                metric.add(zone, pixels[i] & 0xFF, pixels[i + 1] & 0xFF, pixels[i + 2] & 0xFF);
+            }
+        }
+
+        for (int z = 0; z < zones.length; z++) {
+            scores[z] = metric.score(z, zoneAreas[z]);
+        }
+
+        selectedZone = decision.decide(scores, zones.length);
+        // Vote first: a thread woken by publish() may read the voter straight away
+        voter.update(scores);
+        publish(selectedZone, scores);
+    }
+
+    @Override
+    protected void drawOverlay(Mat input) {
+        int selected = selectedZone;
+        for (int z = 0; z < zones.length; z++) {
+            Imgproc.rectangle(input, zones[z], z == selected ? selectedColor : nonSelectedColor);
+        }
+    }
+
+    public int getZoneCount() {
+        return zones.length;
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        unionView.release();
+    }
+}
@@ -0,0 +1,71 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+/**
+ * Turns per-zone scores into a selection for {@link ZoneClassifierPipeline}.
+ */
+public interface ZoneDecision {
+    /**
+     * @return Selected zone index, or -1 for no confident selection
+     */
+    int decide(double[] scores, int zones);
+
+    /**
+     * Highest score wins.
+     */
+    class Argmax implements ZoneDecision {
+        @Override
+        public int decide(double[] scores, int zones) {
+            int best = 0;
+            for (int i = 1; i < zones; i++) {
+                if (scores[i] > scores[best]) {
+                    best = i;
+                }
+            }
+            return zones == 0 ? -1 : best;
+        }
+    }
+
+    /**
+     * Highest score wins, but only if it reaches <i>minimum</i>.
+     */
+    class Threshold extends Argmax {
+        public double minimum;
+
+        public Threshold(double minimum) {
+            this.minimum = minimum;
+        }
+
+        @Override
+        public int decide(double[] scores, int zones) {
+            int best = super.decide(scores, zones);
+            return (best >= 0 && scores[best] >= minimum) ? best : -1;
+        }
+    }
+
+    /**
+     * Highest score wins, but only if it beats the runner-up by at least <i>margin</i>.
+     */
+    class MarginOfVictory extends Argmax {
+        public double margin;
+
+        public MarginOfVictory(double margin) {
+            this.margin = margin;
+        }
+
+        @Override
+        public int decide(double[] scores, int zones) {
+            int best = super.decide(scores, zones);
+            if (best < 0) {
+                return -1;
+            }
+
+            double runnerUp = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < zones; i++) {
+                if (i != best) {
+                    runnerUp = Math.max(runnerUp, scores[i]);
+                }
+            }
+            return (scores[best] - runnerUp >= margin) ? best : -1;
+        }
+    }
+}
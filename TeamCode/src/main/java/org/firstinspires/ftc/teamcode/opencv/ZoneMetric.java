@@ -0,0 +1,182 @@
+package org.firstinspires.ftc.teamcode.opencv;
+
+import java.util.Arrays;
+
+/**
+ * Per-zone scoring metric for {@link ZoneClassifierPipeline}. The pipeline makes one
+ * pass over the pixels of all zones, calling {@link #add(int, int, int, int)} for each,
+ * and then asks for one score per zone. Higher scores are better.
+ * <p>
+ * Implementations keep their accumulators in arrays sized by {@link #reset(int)} so a
+ * frame allocates nothing.
+ */
+public interface ZoneMetric {
+    /**
+     * Clear the accumulators before a new frame.
+     */
+    void reset(int zones);
+
+    /**
+     * Accumulate one 8-bit RGB pixel belonging to <i>zone</i>.
+     */
+    void add(int zone, int r, int g, int b);
+
+    /**
+     * @param pixels Number of pixels in the zone
+     */
+    double score(int zone, int pixels);
+
+    /**
+     * Mean HSV saturation (0..255), the metric of {@link DrawRectanglePipeline}.
+     */
+    class MeanSaturation implements ZoneMetric {
+        private long[] sums = new long[0];
+
+        @Override
+        public void reset(int zones) {
+            if (sums.length != zones) {
+                sums = new long[zones];
+            }
+            Arrays.fill(sums, 0);
+        }
+
+        @Override
+        public void add(int zone, int r, int g, int b) {
+            sums[zone] += ColorMath.saturation(r, g, b);
+        }
+
+        @Override
+        public double score(int zone, int pixels) {
+            return pixels == 0 ? 0 : (double) sums[zone] / pixels;
+        }
+    }
+
+    /**
+     * Fraction (0..1) of pixels whose hue, saturation and value fall inside a band.
+     * Hue is 0..179; a band with hueMin greater than hueMax wraps through red.
+     */
+    class HueBandFraction implements ZoneMetric {
+        public int hueMin, hueMax, satMin, valMin;
+        private int[] counts = new int[0];
+
+        public HueBandFraction(int hueMin, int hueMax, int satMin, int valMin) {
+            this.hueMin = hueMin;
+            this.hueMax = hueMax;
+            this.satMin = satMin;
+            this.valMin = valMin;
+        }
+
+        @Override
+        public void reset(int zones) {
+            if (counts.length != zones) {
+                counts = new int[zones];
+            }
+            Arrays.fill(counts, 0);
+        }
+
+        @Override
+        public void add(int zone, int r, int g, int b) {
+            if (ColorMath.value(r, g, b) < valMin || ColorMath.saturation(r, g, b) < satMin) {
+                return;
+            }
+
+            int hue = ColorMath.hue(r, g, b);
+            boolean inBand = (hueMin <= hueMax)
+                    ? (hue >= hueMin && hue <= hueMax)
+                    : (hue >= hueMin || hue <= hueMax);
+            if (inBand) {
+                counts[zone]++;
+            }
+        }
+
+        @Override
+        public double score(int zone, int pixels) {
+            return pixels == 0 ? 0 : (double) counts[zone] / pixels;
+        }
+    }
+
+    /**
+     * Fraction (0..1) of pixels inside one of the dashboard-tunable {@link HueBandCounter}
+     * bands, tested with its lookup tables.
+     */
+    class BandFraction implements ZoneMetric {
+        private final HueBandCounter counter;
+        private final int band;
+        private int[] counts = new int[0];
+
+        /**
+         * @param band One of the {@link HueBandCounter} band indexes, e.g. YELLOW_BAND
+         */
+        public BandFraction(HueBandCounter counter, int band) {
+            this.counter = counter;
+            this.band = band;
+        }
+
+        @Override
+        public void reset(int zones) {
+            if (counts.length != zones) {
+                counts = new int[zones];
+            }
+            Arrays.fill(counts, 0);
+            counter.refreshIfChanged();
+        }
+
+        @Override
+        public void add(int zone, int r, int g, int b) {
+            int mask = counter.bandMask(ColorMath.hue(r, g, b), ColorMath.saturation(r, g, b), ColorMath.value(r, g, b));
+            counts[zone] += (mask >> band) & 1;
+        }
+
+        @Override
+        public double score(int zone, int pixels) {
+            return pixels == 0 ? 0 : (double) counts[zone] / pixels;
+        }
+    }
+
+    /**
+     * Negated CIE76 distance in L*a*b* between the zone's mean color and a target color,
+     * so the closest zone scores highest. Only the mean is converted to Lab, so the
+     * per-pixel cost is three additions.
+     */
+    class LabDistance implements ZoneMetric {
+        private final double[] targetLab = new double[3];
+        private final double[] zoneLab = new double[3];
+        private long[] sums = new long[0];
+
+        public LabDistance(int targetR, int targetG, int targetB) {
+            ColorMath.rgbToLab(targetR, targetG, targetB, targetLab);
+        }
+
+        @Override
+        public void reset(int zones) {
+            if (sums.length != zones * 3) {
+                sums = new long[zones * 3];
+            }
+            Arrays.fill(sums, 0);
+        }
+
+        @Override
+        public void add(int zone, int r, int g, int b) {
+            int i = zone * 3;
+            sums[i] += r;
+            sums[i + 1] += g;
+            sums[i + 2] += b;
+        }
+
+        @Override
+        public double score(int zone, int pixels) {
+            if (pixels == 0) {
+                return Double.NEGATIVE_INFINITY;
+            }
+
+            int i = zone * 3;
+            ColorMath.rgbToLab((double) sums[i] / pixels, (double) sums[i + 1] / pixels,
+                    (double) sums[i + 2] / pixels, zoneLab);
+
+            double dL = zoneLab[0] - targetLab[0];
+            double da = zoneLab[1] - targetLab[1];
+            double db = zoneLab[2] - targetLab[2];
+            return -Math.sqrt(dL * dL + da * da + db * db);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package org.firstinspires.ftc.teamcode.tuning;
+
+import android.os.Debug;
+
+import com.acmerobotics.dashboard.FtcDashboard;
+import com.acmerobotics.dashboard.canvas.Canvas;
+import com.acmerobotics.dashboard.config.Config;
+import com.acmerobotics.dashboard.telemetry.MultipleTelemetry;
+import com.acmerobotics.dashboard.telemetry.TelemetryPacket;
+import com.acmerobotics.roadrunner.Action;
+import com.acmerobotics.roadrunner.Actions;
+import com.acmerobotics.roadrunner.DualNum;
+import com.acmerobotics.roadrunner.HolonomicController;
+import com.acmerobotics.roadrunner.MecanumKinematics;
+import com.acmerobotics.roadrunner.MotorFeedforward;
+import com.acmerobotics.roadrunner.Pose2d;
+import com.acmerobotics.roadrunner.Pose2dDual;
+import com.acmerobotics.roadrunner.PoseVelocity2d;
+import com.acmerobotics.roadrunner.PoseVelocity2dDual;
+import com.acmerobotics.roadrunner.SequentialAction;
+import com.acmerobotics.roadrunner.Time;
+import com.acmerobotics.roadrunner.TimeTrajectory;
+import com.acmerobotics.roadrunner.Twist2d;
+import com.acmerobotics.roadrunner.Twist2dDual;
+import com.acmerobotics.roadrunner.Vector2d;
+import com.acmerobotics.roadrunner.ftc.DownsampledWriter;
+import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
+
+import org.firstinspires.ftc.teamcode.Drawing;
+import org.firstinspires.ftc.teamcode.MecanumDrive;
+import org.firstinspires.ftc.teamcode.messages.DriveCommandMessage;
+import org.firstinspires.ftc.teamcode.messages.MecanumCommandMessage;
+import org.firstinspires.ftc.teamcode.messages.PoseMessage;
+
+/**
+ * Drives a short line and counts the heap allocations made by each control tick of
+ * the drive action, so garbage regressions in the control step show up on the robot.
+ * <p>
+ * Much of a tick allocates in code the drive does not own: Road Runner's immutable math
+ * types (DualNum, Pose2dDual, ...), the boxing in <i>TelemetryPacket.put</i>, the canvas
+ * operations and the <i>DownsampledWriter</i> logs. After each tick the same work is
+ * repeated on the tick's inputs and counted on its own as a baseline. The difference is
+ * what the drive itself allocates (encoder and IMU reads, the localizer's input log and
+ * its own bookkeeping), and the test fails when its steady-state average goes above
+ * <i>MAX_DRIVE_ALLOCATIONS_PER_TICK</i>.
+ */
+@Config
+public final class ControlLoopAllocationTest extends LinearOpMode {
+    public static double DISTANCE = 48;
+    public static double MAX_DRIVE_ALLOCATIONS_PER_TICK = 40;
+
+    // The first ticks build the controller, feedforward and writers
+    static final int WARMUP_TICKS = 10;
+
+    private final PoseMessage poseMessage = new PoseMessage();
+    private final DriveCommandMessage driveCommandMessage = new DriveCommandMessage();
+    private final MecanumCommandMessage mecanumCommandMessage = new MecanumCommandMessage();
+    private final DownsampledWriter[] writers = {
+            new DownsampledWriter("ALLOCATION_BASELINE_ESTIMATED_POSE", 50_000_000),
+            new DownsampledWriter("ALLOCATION_BASELINE_TARGET_POSE", 50_000_000),
+            new DownsampledWriter("ALLOCATION_BASELINE_DRIVE_COMMAND", 50_000_000),
+            new DownsampledWriter("ALLOCATION_BASELINE_MECANUM_COMMAND", 50_000_000),
+    };
+
+    private MecanumDrive drive;
+    private HolonomicController controller;
+    private MotorFeedforward feedforward;
+    private final PoseVelocity2d zeroVelocity = new PoseVelocity2d(new Vector2d(0, 0), 0);
+    private final double[] polylineX = new double[2], polylineY = new double[2];
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void runOpMode() throws InterruptedException {
+        telemetry = new MultipleTelemetry(telemetry, FtcDashboard.getInstance().getTelemetry());
+
+        drive = new MecanumDrive(hardwareMap, new Pose2d(0, 0, 0));
+        Action action = drive.actionBuilder(new Pose2d(0, 0, 0))
+                .lineToX(DISTANCE)
+                .build();
+        TimeTrajectory trajectory = findTrajectory(action);
+
+        MecanumDrive.Params params = MecanumDrive.PARAMS;
+        controller = new HolonomicController(
+                params.axialGain, params.lateralGain, params.headingGain,
+                params.axialVelGain, params.lateralVelGain, params.headingVelGain);
+        feedforward = new MotorFeedforward(params.kS, params.kV / params.inPerTick, params.kA / params.inPerTick);
+
+        waitForStart();
+
+        int ticks = 0;
+        long allocations = 0, baselineAllocations = 0;
+        long allocatedBytes = 0, baselineBytes = 0;
+        double beginTs = Actions.now();
+        boolean running = true;
+        while (opModeIsActive() && running) {
+            TelemetryPacket packet = new TelemetryPacket();
+
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            running = action.run(packet);
+            Debug.stopAllocCounting();
+            long tickCount = Debug.getThreadAllocCount();
+            long tickSize = Debug.getThreadAllocSize();
+
+            double t = Math.min(Actions.now() - beginTs, trajectory.duration);
+            TelemetryPacket baselinePacket = new TelemetryPacket();
+
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            if (running) {
+                replayExternalWork(trajectory, t, baselinePacket);
+            }
+            Debug.stopAllocCounting();
+
+            if (ticks++ > WARMUP_TICKS && running) {
+                allocations += tickCount;
+                allocatedBytes += tickSize;
+                baselineAllocations += Debug.getThreadAllocCount();
+                baselineBytes += Debug.getThreadAllocSize();
+            }
+            FtcDashboard.getInstance().sendTelemetryPacket(packet);
+        }
+
+        int counted = Math.max(1, ticks - WARMUP_TICKS - 2);
+        double perTick = (double) allocations / counted;
+        double baselinePerTick = (double) baselineAllocations / counted;
+        double drivePerTick = perTick - baselinePerTick;
+        telemetry.addData("Ticks", ticks);
+        telemetry.addData("Allocations per tick", "%.1f", perTick);
+        telemetry.addData("Road Runner and telemetry baseline", "%.1f", baselinePerTick);
+        telemetry.addData("Drive allocations per tick", "%.1f (limit %.0f)", drivePerTick, MAX_DRIVE_ALLOCATIONS_PER_TICK);
+        telemetry.addData("Bytes per tick", "%.0f (baseline %.0f)",
+                (double) allocatedBytes / counted, (double) baselineBytes / counted);
+        telemetry.update();
+
+        if (!isStopRequested()) {
+            // Debug's allocation counting is deprecated; a runtime that stopped counting
+            // would otherwise pass every run
+            if (ticks > WARMUP_TICKS + 2 && allocations == 0) {
+                throw new RuntimeException("Allocation counting is not available on this runtime");
+            }
+            if (drivePerTick > MAX_DRIVE_ALLOCATIONS_PER_TICK) {
+                throw new RuntimeException(String.format(
+                        "Drive allocates %.1f objects per tick over the baseline, limit %.0f",
+                        drivePerTick, MAX_DRIVE_ALLOCATIONS_PER_TICK));
+            }
+        }
+
+        while (opModeIsActive()) {
+            idle();
+        }
+    }
+
+    /**
+     * Repeat the Road Runner math, packet, canvas and log work of one drive tick, in the
+     * order <i>FollowTrajectoryAction.run</i> and the drive localizer do it.
+     */
+    private void replayExternalWork(TimeTrajectory trajectory, double t, TelemetryPacket p) {
+        Pose2d pose = drive.localizer.getPose();
+
+        // Localizer
+        Twist2dDual<Time> twist = drive.kinematics.forward(new MecanumKinematics.WheelIncrements<>(
+                new DualNum<Time>(new double[]{0, 0}).times(MecanumDrive.PARAMS.inPerTick),
+                new DualNum<Time>(new double[]{0, 0}).times(MecanumDrive.PARAMS.inPerTick),
+                new DualNum<Time>(new double[]{0, 0}).times(MecanumDrive.PARAMS.inPerTick),
+                new DualNum<Time>(new double[]{0, 0}).times(MecanumDrive.PARAMS.inPerTick)
+        ));
+        pose.plus(new Twist2d(twist.line.value(), 0));
+        twist.velocity().value();
+        writers[0].write(poseMessage.set(pose));
+
+        // Control step
+        Pose2dDual<Time> txWorldTarget = trajectory.get(t);
+        Pose2d target = txWorldTarget.value();
+        writers[1].write(poseMessage.set(target));
+
+        PoseVelocity2dDual<Time> command = controller.compute(txWorldTarget, pose, zeroVelocity);
+        writers[2].write(driveCommandMessage.set(command));
+
+        MecanumKinematics.WheelVelocities<Time> wheelVels = drive.kinematics.inverse(command);
+        double voltage = 12;
+        double leftFrontPower = feedforward.compute(wheelVels.leftFront) / voltage;
+        double leftBackPower = feedforward.compute(wheelVels.leftBack) / voltage;
+        double rightBackPower = feedforward.compute(wheelVels.rightBack) / voltage;
+        double rightFrontPower = feedforward.compute(wheelVels.rightFront) / voltage;
+        writers[3].write(mecanumCommandMessage.set(
+                voltage, leftFrontPower, leftBackPower, rightBackPower, rightFrontPower));
+
+        // Telemetry
+        p.put("x", pose.position.x);
+        p.put("y", pose.position.y);
+        p.put("heading (deg)", Math.toDegrees(pose.heading.toDouble()));
+        p.put("hub transactions/loop", drive.loopCycle.getTransactionsLastTick());
+
+        Pose2d error = target.minusExp(pose);
+        p.put("xError", error.position.x);
+        p.put("yError", error.position.y);
+        p.put("headingError (deg)", Math.toDegrees(error.heading.toDouble()));
+
+        Canvas c = p.fieldOverlay();
+        c.setStrokeWidth(1);
+        c.setStroke("#3F51B5");
+        c.strokePolyline(polylineX, polylineY);
+
+        c.setStroke("#4CAF50");
+        Drawing.drawRobot(c, target);
+
+        c.setStroke("#3F51B5");
+        Drawing.drawRobot(c, pose);
+
+        c.setStroke("#4CAF50FF");
+        c.setStrokeWidth(1);
+        c.strokePolyline(polylineX, polylineY);
+    }
+
+    private static TimeTrajectory findTrajectory(Action action) {
+        if (action instanceof MecanumDrive.FollowTrajectoryAction) {
+            return ((MecanumDrive.FollowTrajectoryAction) action).timeTrajectory;
+        }
+        if (action instanceof SequentialAction) {
+            for (Action child : ((SequentialAction) action).getInitialActions()) {
+                if (child instanceof MecanumDrive.FollowTrajectoryAction) {
+                    return ((MecanumDrive.FollowTrajectoryAction) child).timeTrajectory;
+                }
+            }
+        }
+        throw new RuntimeException("ControlLoopAllocationTest: no trajectory in " + action.getClass().getSimpleName());
+    }
+}
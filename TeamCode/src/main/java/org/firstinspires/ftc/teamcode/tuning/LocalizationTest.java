@@ -37,6 +37,7 @@ public class LocalizationTest extends LinearOpMode {
                 telemetry.addData("x", pose.position.x);
                 telemetry.addData("y", pose.position.y);
                 telemetry.addData("heading (deg)", Math.toDegrees(pose.heading.toDouble()));
+                drive.loopCycle.addTelemetry(telemetry);
                 telemetry.update();
 
                 TelemetryPacket packet = new TelemetryPacket();
@@ -64,6 +65,7 @@ public class LocalizationTest extends LinearOpMode {
                 telemetry.addData("x", pose.position.x);
                 telemetry.addData("y", pose.position.y);
                 telemetry.addData("heading (deg)", Math.toDegrees(pose.heading.toDouble()));
+                drive.loopCycle.addTelemetry(telemetry);
                 telemetry.update();
 
                 TelemetryPacket packet = new TelemetryPacket();
@@ -296,6 +296,9 @@ public final class TuningOpModes {
 
             manager.register(metaForClass(ManualFeedbackTuner.class), ManualFeedbackTuner.class);
             manager.register(metaForClass(SplineTest.class), SplineTest.class);
+            if (DRIVE_CLASS.equals(MecanumDrive.class)) {
+                manager.register(metaForClass(ControlLoopAllocationTest.class), ControlLoopAllocationTest.class);
+            }
 //            manager.register(metaForClass(OTOSAngularScalarTuner.class), new OTOSAngularScalarTuner(dvf));
 //            manager.register(metaForClass(OTOSLinearScalarTuner.class), new OTOSLinearScalarTuner(dvf));
 //            manager.register(metaForClass(OTOSHeadingOffsetTuner.class), new OTOSHeadingOffsetTuner(dvf));